@@ -0,0 +1,19 @@
+package com.google.devrel.training.conference.domain;
+
+/**
+ * A simple wrapper for the announcement message shown on the home page.
+ */
+public class Announcement {
+
+    private String message;
+
+    public Announcement() {}
+
+    public Announcement(String message) {
+        this.message = message;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
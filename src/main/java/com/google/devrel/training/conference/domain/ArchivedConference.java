@@ -0,0 +1,91 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A Conference that has ended, moved out of the Conference kind by ArchiveService.
+ *
+ * Only endDate is indexed, so archived Conferences cost no index writes on the properties
+ * the live catalog is queried by, and history searches scan them by end date. The entity is
+ * keyed by the websafe key of the original Conference, so old links and the Profiles of its
+ * attendees still find it.
+ */
+@Entity
+@Cache
+public class ArchivedConference {
+
+    @Id
+    private String websafeConferenceKey;
+
+    private long conferenceId;
+
+    private String organizerUserId;
+
+    private String name;
+
+    private String description;
+
+    private List<String> topics;
+
+    private String city;
+
+    private Date startDate;
+
+    @Index
+    private Date endDate;
+
+    private int maxAttendees;
+
+    private int seatsAvailable;
+
+    private Date archivedAt;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private ArchivedConference() {}
+
+    public ArchivedConference(Conference conference, Date archivedAt) {
+        this.websafeConferenceKey = conference.getWebsafeKey();
+        this.conferenceId = conference.getId();
+        this.organizerUserId = conference.getOrganizerUserId();
+        this.name = conference.getName();
+        this.description = conference.getDescription();
+        this.topics = conference.getTopics();
+        this.city = conference.getCity();
+        this.startDate = conference.getStartDate();
+        this.endDate = conference.getEndDate();
+        this.maxAttendees = conference.getMaxAttendees();
+        this.seatsAvailable = conference.getSeatsAvailable();
+        this.archivedAt = new Date(archivedAt.getTime());
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    public Date getArchivedAt() {
+        return new Date(archivedAt.getTime());
+    }
+
+    /**
+     * Rebuilds the Conference as it was when it was archived.
+     *
+     * @return a new Conference with the archived values and no changes.
+     */
+    public Conference toConference() {
+        ConferenceForm conferenceForm = new ConferenceForm(name, description, topics, city,
+                startDate, endDate, maxAttendees);
+        Conference conference = new Conference(conferenceId, organizerUserId, conferenceForm);
+        conference.bookSeats(maxAttendees - seatsAvailable);
+        // A copy does not count as changed, as if it had been loaded.
+        return conference.copy();
+    }
+}
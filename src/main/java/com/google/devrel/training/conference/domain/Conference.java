@@ -1,6 +1,6 @@
 package com.google.devrel.training.conference.domain;
 
-import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static com.google.devrel.training.conference.service.RepositoryService.repository;
 import com.googlecode.objectify.condition.IfNotDefault;
 
 import com.google.api.server.spi.config.AnnotationBoolean;
@@ -8,26 +8,42 @@ import com.google.api.server.spi.config.ApiResourceProperty;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.service.Tracing;
+import com.google.devrel.training.conference.service.Tracing.Span;
 import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Ignore;
 import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.OnLoad;
+import com.googlecode.objectify.annotation.OnSave;
 import com.googlecode.objectify.annotation.Parent;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
+import java.util.TimeZone;
 
 /**
  * Conference class stores conference information.
  */
 @Entity
+@Cache
 public class Conference {
 
     private static final String DEFAULT_CITY = "Default City";
 
     private static final List<String> DEFAULT_TOPICS = ImmutableList.of("Default", "Topic");
 
+    /**
+     * Caps the days index for very long conferences, which are matched by their first days only.
+     */
+    private static final int MAX_INDEXED_DAYS = 366;
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
     /**
      * The id for the datastore key.
      *
@@ -89,6 +105,16 @@ public class Conference {
     @Index
     private int month;
 
+    /**
+     * The days this conference runs on, as yyyymmdd numbers derived from startDate and endDate.
+     *
+     * An overlap query for a date range is a single range scan over this index: a conference
+     * matches when one of its days falls inside the range.
+     */
+    @Index
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private List<Integer> days;
+
     /**
      * The maximum capacity of this conference.
      */
@@ -96,11 +122,66 @@ public class Conference {
     private int maxAttendees;
 
     /**
-     * Number of seats currently available.
+     * Number of seats currently available. It is not indexed, so that a registration does
+     * not rewrite index rows; ConferenceSeats holds the authoritative count in the datastore.
      */
-    @Index
     private int seatsAvailable;
 
+    /**
+     * The availability bucket of seatsAvailable, indexed in its place. It only changes when
+     * the count crosses a threshold, so most registrations leave the Conference untouched.
+     */
+    @Index
+    private Availability availability;
+
+    /**
+     * When the Conference was last changed, so that readers of an older copy of the catalog
+     * can query for the Conferences changed since.
+     */
+    @Index
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private Date lastModified;
+
+    /**
+     * Whether the Conference changed since it was loaded or saved, so that unchanged
+     * Conferences are not written back.
+     */
+    @Ignore
+    private boolean changed;
+
+    /**
+     * How many seats are left, coarse enough to be indexed without being rewritten on every
+     * registration.
+     */
+    public enum Availability {
+        AVAILABLE,
+        /**
+         * Fewer than FEW_SEATS seats, or less than a tenth of the capacity, are left.
+         */
+        LIMITED,
+        SOLD_OUT;
+
+        /**
+         * Seats left below which a Conference is LIMITED, whatever its capacity.
+         */
+        public static final int FEW_SEATS = 10;
+
+        /**
+         * Returns the bucket of a seat count.
+         *
+         * @param seatsAvailable the number of seats available.
+         * @param maxAttendees the capacity of the Conference.
+         * @return the Availability.
+         */
+        public static Availability of(int seatsAvailable, int maxAttendees) {
+            if (seatsAvailable <= 0) {
+                return SOLD_OUT;
+            }
+            return seatsAvailable < FEW_SEATS || seatsAvailable * 10L < maxAttendees
+                    ? LIMITED : AVAILABLE;
+        }
+    }
+
     /**
      * Just making the default constructor private.
      */
@@ -115,6 +196,50 @@ public class Conference {
         updateWithConferenceForm(conferenceForm);
     }
 
+    /**
+     * Returns whether the Conference changed since it was loaded or last saved.
+     *
+     * @return true when the Conference needs to be saved.
+     */
+    public boolean hasChanges() {
+        return changed;
+    }
+
+    @OnLoad
+    @OnSave
+    private void clearChanges() {
+        changed = false;
+    }
+
+    /**
+     * Stamps Conferences stored before lastModified existed, so that they are synced again.
+     */
+    @OnSave
+    private void stampLastModified() {
+        if (lastModified == null) {
+            lastModified = new Date();
+        }
+    }
+
+    /**
+     * Fills the availability index of Conferences stored before it existed.
+     */
+    @OnLoad
+    @OnSave
+    private void fillAvailability() {
+        if (availability == null) {
+            availability = Availability.of(seatsAvailable, maxAttendees);
+        }
+    }
+
+    /**
+     * Records a change to the Conference.
+     */
+    private void touch() {
+        changed = true;
+        lastModified = new Date();
+    }
+
     public long getId() {
         return id;
     }
@@ -148,8 +273,11 @@ public class Conference {
      * @return organizer's display name. If there is no Profile, return his/her userId.
      */
     public String getOrganizerDisplayName() {
-        // Profile organizer = ofy().load().key(Key.create(Profile.class, organizerUserId)).now();
-        Profile organizer = ofy().load().key(getProfileKey()).now();
+        Profile organizer;
+        // Runs while the response is serialized, so trace it apart from the API method.
+        try (Span span = Tracing.span("serialize", "organizerDisplayName")) {
+            organizer = repository().loadProfile(organizerUserId);
+        }
         if (organizer == null) {
             return organizerUserId;
         } else {
@@ -189,14 +317,36 @@ public class Conference {
         return month;
     }
 
+    /**
+     * Returns the indexed days of this conference, see {@link #toDay(Date)}.
+     * @return the days as yyyymmdd numbers, empty when there is no startDate.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public List<Integer> getDays() {
+        return days == null ? ImmutableList.<Integer>of() : ImmutableList.copyOf(days);
+    }
+
     public int getMaxAttendees() {
         return maxAttendees;
     }
 
+    /**
+     * Returns when the Conference was last changed.
+     * @return a defensive copy of lastModified, or null if it was never set.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Date getLastModified() {
+        return lastModified == null ? null : new Date(lastModified.getTime());
+    }
+
     public int getSeatsAvailable() {
         return seatsAvailable;
     }
 
+    public Availability getAvailability() {
+        return availability;
+    }
+
     /**
      * Updates the Conference with ConferenceForm.
      * This method is used upon object creation as well as updating existing Conferences.
@@ -221,6 +371,7 @@ public class Conference {
             // Calendar.MONTH is zero based, so adding 1.
             this.month = calendar.get(calendar.MONTH) + 1;
         }
+        this.days = computeDays();
         // Check maxAttendees value against the number of already allocated seats.
         int seatsAllocated = maxAttendees - seatsAvailable;
         if (conferenceForm.getMaxAttendees() < seatsAllocated) {
@@ -231,6 +382,62 @@ public class Conference {
         // However, if there are already some seats allocated, we should subtract that numbers.
         this.maxAttendees = conferenceForm.getMaxAttendees();
         this.seatsAvailable = this.maxAttendees - seatsAllocated;
+        this.availability = Availability.of(seatsAvailable, maxAttendees);
+        touch();
+    }
+
+    /**
+     * Returns whether this Conference was stored before the days index existed and has days
+     * to index, see {@link #indexDays()}.
+     * @return true when saving this Conference again would fill its days index.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public boolean isDaysIndexMissing() {
+        return days == null && startDate != null;
+    }
+
+    /**
+     * Fills the days index of Conferences stored before it existed.
+     */
+    @OnSave
+    private void indexDays() {
+        if (days == null) {
+            days = computeDays();
+        }
+    }
+
+    private List<Integer> computeDays() {
+        List<Integer> result = new ArrayList<>(0);
+        if (startDate == null) {
+            return result;
+        }
+        Calendar calendar = Calendar.getInstance(UTC);
+        calendar.setTime(startDate);
+        int last = toDay(endDate == null || endDate.before(startDate) ? startDate : endDate);
+        int day = toDay(calendar);
+        while (day <= last && result.size() < MAX_INDEXED_DAYS) {
+            result.add(day);
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+            day = toDay(calendar);
+        }
+        return result;
+    }
+
+    /**
+     * Converts a date to the yyyymmdd number of its UTC day, the unit of the days index.
+     *
+     * @param date the date to convert.
+     * @return the day, for example 20150310 for March 10, 2015.
+     */
+    public static int toDay(Date date) {
+        Calendar calendar = Calendar.getInstance(UTC);
+        calendar.setTime(date);
+        return toDay(calendar);
+    }
+
+    private static int toDay(Calendar calendar) {
+        return calendar.get(Calendar.YEAR) * 10000 + (calendar.get(Calendar.MONTH) + 1) * 100
+                + calendar.get(Calendar.DAY_OF_MONTH);
     }
 
     public void bookSeats(final int number) {
@@ -238,6 +445,7 @@ public class Conference {
             throw new IllegalArgumentException("There are no seats available.");
         }
         seatsAvailable = seatsAvailable - number;
+        updateAvailability();
     }
 
     public void giveBackSeats(final int number) {
@@ -245,6 +453,75 @@ public class Conference {
             throw new IllegalArgumentException("The number of seats will exceeds the capacity.");
         }
         seatsAvailable = seatsAvailable + number;
+        updateAvailability();
+    }
+
+    /**
+     * Moves the Conference to the bucket of its seat count. Only a move counts as a change,
+     * a count within the same bucket is saved in ConferenceSeats alone, which has its own
+     * lastModified for the catalog sync.
+     */
+    private void updateAvailability() {
+        Availability current = Availability.of(seatsAvailable, maxAttendees);
+        if (current != availability) {
+            availability = current;
+            touch();
+        }
+    }
+
+    /**
+     * Replaces the stored seat count with the authoritative one from ConferenceSeats. The
+     * Conference was saved whenever the count changed bucket, so the bucket stays the same
+     * and the Conference does not count as changed.
+     */
+    void overlaySeats(int seatsAvailable) {
+        this.seatsAvailable = seatsAvailable;
+    }
+
+    /**
+     * Puts back the stored state that updateWithConferenceForm derives or stamps, for copies
+     * of the catalog kept outside the datastore. The Conference then reads as it was stored,
+     * with no changes, like a freshly loaded Conference.
+     *
+     * @param seatsAvailable the stored number of seats available.
+     * @param availability the stored availability bucket, or null if there was none.
+     * @param days the stored days index, or null if there was none.
+     * @param lastModified the stored time of the last change, or null if there was none.
+     */
+    public void restoreStoredState(int seatsAvailable, Availability availability,
+                                   List<Integer> days, Date lastModified) {
+        this.seatsAvailable = seatsAvailable;
+        this.availability = availability;
+        this.days = days;
+        this.lastModified = lastModified == null ? null : new Date(lastModified.getTime());
+        this.changed = false;
+    }
+
+    /**
+     * Returns a copy of this Conference, for repositories that keep entities in memory.
+     * The topics, dates and days are shared, because a Conference never modifies them in place.
+     * The copy has no changes, like a freshly loaded Conference.
+     *
+     * @return a copy of this Conference.
+     */
+    public Conference copy() {
+        Conference copy = new Conference();
+        copy.id = id;
+        copy.name = name;
+        copy.description = description;
+        copy.profileKey = profileKey;
+        copy.organizerUserId = organizerUserId;
+        copy.topics = topics;
+        copy.city = city;
+        copy.startDate = startDate;
+        copy.endDate = endDate;
+        copy.month = month;
+        copy.days = days;
+        copy.maxAttendees = maxAttendees;
+        copy.seatsAvailable = seatsAvailable;
+        copy.availability = availability;
+        copy.lastModified = lastModified;
+        return copy;
     }
 
     @Override
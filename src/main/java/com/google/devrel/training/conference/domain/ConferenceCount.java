@@ -0,0 +1,34 @@
+package com.google.devrel.training.conference.domain;
+
+/**
+ * The number of Conferences matching a query, as returned by the countConferences API.
+ */
+public class ConferenceCount {
+
+    private long count;
+
+    private boolean capped;
+
+    public ConferenceCount() {}
+
+    public ConferenceCount(long count, boolean capped) {
+        this.count = count;
+        this.capped = capped;
+    }
+
+    /**
+     * Returns the number of matches, at most the cap of the count.
+     * @return the number of matching Conferences.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns whether counting stopped at the cap, so there are at least count matches.
+     * @return true when the real count may be higher.
+     */
+    public boolean isCapped() {
+        return capped;
+    }
+}
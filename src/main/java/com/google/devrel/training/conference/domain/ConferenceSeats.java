@@ -0,0 +1,121 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.Date;
+
+/**
+ * The authoritative seat count of a Conference, split out of the Conference so that a
+ * registration rewrites one small entity with a single indexed property instead of the
+ * Conference and its index rows.
+ *
+ * It is a child of its Conference, so both are in the same entity group and a registration
+ * transaction covers them together. The Conference keeps its availability bucket indexed and
+ * is only saved when a registration moves it to another bucket; readers overlay the count from
+ * here on the Conferences they load. Conferences stored before the split have no
+ * ConferenceSeats until their first registration, and their own count is authoritative.
+ *
+ * Since a count within the same bucket does not change the Conference's lastModified, the
+ * count carries its own, which the catalog sync queries for the seat changes.
+ */
+@Entity
+@Cache
+public class ConferenceSeats {
+
+    private static final long ID = 1;
+
+    @Parent
+    private Key<Conference> conferenceKey;
+
+    @Id
+    private long id = ID;
+
+    private int seatsAvailable;
+
+    /**
+     * When the count was last changed.
+     */
+    @Index
+    private Date lastModified;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private ConferenceSeats() {}
+
+    /**
+     * Creates the seat count of a Conference from the count the Conference holds.
+     *
+     * @param conference a Conference with its id set.
+     */
+    public ConferenceSeats(Conference conference) {
+        this.conferenceKey = conferenceKey(conference);
+        this.seatsAvailable = conference.getSeatsAvailable();
+        // A new Conference and its count are synced once, as the Conference.
+        this.lastModified = conference.getLastModified() == null ? new Date()
+                : conference.getLastModified();
+    }
+
+    /**
+     * Returns the key of the seat count of a Conference.
+     *
+     * @param conferenceKey the key of the Conference.
+     * @return the key of its ConferenceSeats.
+     */
+    public static Key<ConferenceSeats> key(Key<Conference> conferenceKey) {
+        return Key.create(conferenceKey, ConferenceSeats.class, ID);
+    }
+
+    /**
+     * Returns the key of the seat count of a Conference.
+     *
+     * @param conference a Conference with its id set.
+     * @return the key of its ConferenceSeats.
+     */
+    public static Key<ConferenceSeats> key(Conference conference) {
+        return key(conferenceKey(conference));
+    }
+
+    private static Key<Conference> conferenceKey(Conference conference) {
+        return Key.create(conference.getProfileKey(), Conference.class, conference.getId());
+    }
+
+    public Key<Conference> getConferenceKey() {
+        return conferenceKey;
+    }
+
+    public int getSeatsAvailable() {
+        return seatsAvailable;
+    }
+
+    /**
+     * @return a defensive copy of lastModified, or null for a count stored before it existed.
+     */
+    public Date getLastModified() {
+        return lastModified == null ? null : new Date(lastModified.getTime());
+    }
+
+    /**
+     * Records the seat count of the Conference after a registration changed it.
+     *
+     * @param conference the Conference the seats were booked or given back on.
+     */
+    public void copyFrom(Conference conference) {
+        seatsAvailable = conference.getSeatsAvailable();
+        lastModified = new Date();
+    }
+
+    /**
+     * Puts this seat count on a loaded Conference.
+     *
+     * @param conference the Conference this count belongs to.
+     */
+    public void copyTo(Conference conference) {
+        conference.overlaySeats(seatsAvailable);
+    }
+}
@@ -0,0 +1,67 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * The changes to the Conference catalog since a client's watermark, as returned by the
+ * syncConferences API.
+ *
+ * A client applies the changed Conferences and removes the Conferences with the removed keys.
+ * While there is a cursor it asks for the next page with the same watermark. After the last
+ * page it keeps the new watermark for its next sync.
+ */
+public class ConferenceSync {
+
+    private List<Conference> changed;
+
+    private List<String> removedKeys;
+
+    private String cursor;
+
+    private long watermark;
+
+    public ConferenceSync() {}
+
+    public ConferenceSync(List<Conference> changed, List<String> removedKeys, String cursor,
+                          long watermark) {
+        this.changed = ImmutableList.copyOf(changed);
+        this.removedKeys = ImmutableList.copyOf(removedKeys);
+        this.cursor = cursor;
+        this.watermark = watermark;
+    }
+
+    /**
+     * Returns the Conferences created or changed since the watermark, on this page.
+     * @return a List of Conferences.
+     */
+    public List<Conference> getChanged() {
+        return changed;
+    }
+
+    /**
+     * Returns the websafe keys of the Conferences removed since the watermark. They are sent
+     * with the last page.
+     * @return a List of websafe Conference keys.
+     */
+    public List<String> getRemovedKeys() {
+        return removedKeys;
+    }
+
+    /**
+     * Returns the cursor of the next page.
+     * @return the cursor, or null when this is the last page.
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    /**
+     * Returns the watermark for the next sync, in milliseconds since the epoch.
+     * @return the new watermark.
+     */
+    public long getWatermark() {
+        return watermark;
+    }
+}
@@ -0,0 +1,42 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+
+import java.util.Date;
+
+/**
+ * Records that a Conference was removed, so that clients syncing their copy of the catalog
+ * can remove it too.
+ */
+@Entity
+public class ConferenceTombstone {
+
+    /**
+     * The websafe key of the removed Conference.
+     */
+    @Id
+    private String websafeConferenceKey;
+
+    @Index
+    private Date removedAt;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private ConferenceTombstone() {}
+
+    public ConferenceTombstone(String websafeConferenceKey, Date removedAt) {
+        this.websafeConferenceKey = websafeConferenceKey;
+        this.removedAt = new Date(removedAt.getTime());
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    public Date getRemovedAt() {
+        return new Date(removedAt.getTime());
+    }
+}
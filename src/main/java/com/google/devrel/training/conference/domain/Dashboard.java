@@ -0,0 +1,43 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * Everything the web client shows a signed in user when it opens: the user's Profile, the
+ * Conferences the user organizes and the Conferences the user is going to attend.
+ */
+public class Dashboard {
+
+    private Profile profile;
+
+    private List<Conference> conferencesCreated;
+
+    private List<Conference> conferencesToAttend;
+
+    public Dashboard() {}
+
+    public Dashboard(Profile profile, List<Conference> conferencesCreated,
+                     List<Conference> conferencesToAttend) {
+        this.profile = profile;
+        this.conferencesCreated = ImmutableList.copyOf(conferencesCreated);
+        this.conferencesToAttend = ImmutableList.copyOf(conferencesToAttend);
+    }
+
+    /**
+     * Returns the user's Profile.
+     * @return the Profile, or null when the user has not saved one yet.
+     */
+    public Profile getProfile() {
+        return profile;
+    }
+
+    public List<Conference> getConferencesCreated() {
+        return conferencesCreated;
+    }
+
+    public List<Conference> getConferencesToAttend() {
+        return conferencesToAttend;
+    }
+}
@@ -0,0 +1,83 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.Date;
+
+/**
+ * The outcome of a request that carried an idempotency key, so that a retry returns it even
+ * after the memcache copy kept by IdempotencyService was evicted.
+ *
+ * A record is a child of the Profile of the user who made the request, keyed by the operation
+ * and the idempotency key, so it is written in the same transaction as the user's Profile and
+ * the Conferences the user organizes. Records are read by key, and replayed for TTL_MILLIS;
+ * an older record counts as absent. Only createdAt is indexed, for the cron job that deletes
+ * the expired records.
+ */
+@Entity
+public class IdempotencyRecord {
+
+    /**
+     * How long an outcome is replayed, long enough for any client retry.
+     */
+    public static final long TTL_MILLIS = 60 * 60 * 1000;
+
+    @Parent
+    private Key<Profile> profileKey;
+
+    /**
+     * The operation and the idempotency key, see IdempotencyService.Claim.getRecordId().
+     */
+    @Id
+    private String id;
+
+    private String outcome;
+
+    @Index
+    private Date createdAt;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private IdempotencyRecord() {}
+
+    public IdempotencyRecord(String userId, String id, String outcome) {
+        this.profileKey = Key.create(Profile.class, userId);
+        this.id = id;
+        this.outcome = outcome;
+        this.createdAt = new Date();
+    }
+
+    /**
+     * Returns the key of a record.
+     *
+     * @param userId the id of the user who made the request.
+     * @param id the operation and the idempotency key.
+     * @return the key of the IdempotencyRecord.
+     */
+    public static Key<IdempotencyRecord> key(String userId, String id) {
+        return Key.create(Key.create(Profile.class, userId), IdempotencyRecord.class, id);
+    }
+
+    public String getOutcome() {
+        return outcome;
+    }
+
+    public Date getCreatedAt() {
+        return new Date(createdAt.getTime());
+    }
+
+    /**
+     * Returns whether the record is too old to be replayed.
+     *
+     * @param now the current time.
+     * @return true when the record was created TTL_MILLIS or more before now.
+     */
+    public boolean hasExpired(Date now) {
+        return now.getTime() - createdAt.getTime() >= TTL_MILLIS;
+    }
+}
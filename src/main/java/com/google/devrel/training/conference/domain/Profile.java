@@ -3,13 +3,19 @@ package com.google.devrel.training.conference.domain;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableList;
 import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.googlecode.objectify.annotation.Cache;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Ignore;
+import com.googlecode.objectify.annotation.OnLoad;
+import com.googlecode.objectify.annotation.OnSave;
 
 
 @Entity
+@Cache
 public class Profile {
 	String displayName;
 	String mainEmail;
@@ -18,6 +24,10 @@ public class Profile {
 	private List<String> conferenceKeysToAttend = new ArrayList<>(0);
 
 	@Id String userId;
+
+	// Whether the Profile changed since it was loaded or saved
+	@Ignore
+	private boolean changed;
     
     /**
      * Public constructor for Profile.
@@ -32,6 +42,7 @@ public class Profile {
     	this.displayName = displayName;
     	this.mainEmail = mainEmail;
     	this.teeShirtSize = TeeShirtSize.NOT_SPECIFIED;
+    	this.changed = true;
     }
     
 	public String getDisplayName() {
@@ -52,8 +63,27 @@ public class Profile {
 	
 	public void update(String displayName, TeeShirtSize teeShirtSize)
 	{
+		if (Objects.equal(this.displayName, displayName) && this.teeShirtSize == teeShirtSize) {
+			return;
+		}
 		this.displayName = displayName;
 		this.teeShirtSize = teeShirtSize;
+		this.changed = true;
+	}
+
+	/**
+	 * Returns whether the Profile changed since it was loaded or last saved.
+	 *
+	 * @return true when the Profile needs to be saved.
+	 */
+	public boolean hasChanges() {
+		return changed;
+	}
+
+	@OnLoad
+	@OnSave
+	private void clearChanges() {
+		changed = false;
 	}
 
 	public List<String> getConferenceKeysToAttend() 
@@ -64,6 +94,7 @@ public class Profile {
 	public void addToConferenceKeysToAttend(String conferenceKey) 
 	{
 	    conferenceKeysToAttend.add(conferenceKey);
+	    changed = true;
 	}
 	    
 	/**
@@ -74,11 +105,28 @@ public class Profile {
 	public void unregisterFromConference(String conferenceKey) {
 	  if (conferenceKeysToAttend.contains(conferenceKey)) {
 	     conferenceKeysToAttend.remove(conferenceKey);
+	     changed = true;
 	  } else {
 	     throw new IllegalArgumentException("Invalid conferenceKey: " + conferenceKey);
 	  }
 	}
 
+	/**
+	 * Returns a copy of this Profile, for repositories that keep entities in memory.
+	 * The copy has no changes, like a freshly loaded Profile.
+	 *
+	 * @return a copy of this Profile with its own list of conferences to attend.
+	 */
+	public Profile copy() {
+		Profile copy = new Profile();
+		copy.userId = userId;
+		copy.displayName = displayName;
+		copy.mainEmail = mainEmail;
+		copy.teeShirtSize = teeShirtSize;
+		copy.conferenceKeysToAttend = new ArrayList<>(conferenceKeysToAttend);
+		return copy;
+	}
+
 	/**
      * Just making the default constructor private.
      */
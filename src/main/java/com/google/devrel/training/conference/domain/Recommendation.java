@@ -0,0 +1,104 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The Conferences recommended to a user, precomputed by RecommendationService.
+ *
+ * Each recommended Conference is stored with what the client shows in a list, so the
+ * recommendations are served with one get by the user id.
+ */
+@Entity
+@Cache
+public class Recommendation {
+
+    @Id
+    private String userId;
+
+    private List<Item> items = new ArrayList<>(0);
+
+    private Date computedAt;
+
+    /**
+     * A recommended Conference, best first.
+     */
+    public static class Item {
+
+        private String websafeConferenceKey;
+
+        private String name;
+
+        private String city;
+
+        private Date startDate;
+
+        private int score;
+
+        /**
+         * Just making the default constructor private.
+         */
+        private Item() {}
+
+        public Item(Conference conference, int score) {
+            this.websafeConferenceKey = conference.getWebsafeKey();
+            this.name = conference.getName();
+            this.city = conference.getCity();
+            this.startDate = conference.getStartDate();
+            this.score = score;
+        }
+
+        public String getWebsafeConferenceKey() {
+            return websafeConferenceKey;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getCity() {
+            return city;
+        }
+
+        public Date getStartDate() {
+            return startDate == null ? null : new Date(startDate.getTime());
+        }
+
+        /**
+         * Returns how strongly the Conference is recommended.
+         * @return the score, higher is better.
+         */
+        public int getScore() {
+            return score;
+        }
+    }
+
+    /**
+     * Just making the default constructor private.
+     */
+    private Recommendation() {}
+
+    public Recommendation(String userId, List<Item> items, Date computedAt) {
+        this.userId = userId;
+        this.items = new ArrayList<>(items);
+        this.computedAt = new Date(computedAt.getTime());
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public List<Item> getItems() {
+        return ImmutableList.copyOf(items);
+    }
+
+    public Date getComputedAt() {
+        return new Date(computedAt.getTime());
+    }
+}
@@ -0,0 +1,82 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.api.server.spi.config.AnnotationBoolean;
+import com.google.api.server.spi.config.ApiResourceProperty;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.Date;
+
+/**
+ * A seat of a Conference held for a user during checkout, until the user confirms the
+ * registration, releases the seat or the hold expires.
+ *
+ * The held seat is taken from the Conference's seats when the hold is made, so a confirmation
+ * only has to register the user. A hold is a child of its Conference, keyed by the user, so a
+ * user holds at most one seat per Conference and holds are changed in the same transactions
+ * as the seats. Only expiresAt is indexed, for the sweeper looking for expired holds.
+ */
+@Entity
+public class SeatHold {
+
+    @Parent
+    private Key<Conference> conferenceKey;
+
+    @Id
+    private String userId;
+
+    @Index
+    private Date expiresAt;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private SeatHold() {}
+
+    public SeatHold(String websafeConferenceKey, String userId, Date expiresAt) {
+        this.conferenceKey = Key.create(websafeConferenceKey);
+        this.userId = userId;
+        this.expiresAt = new Date(expiresAt.getTime());
+    }
+
+    /**
+     * Returns the key of the hold of a user on a Conference.
+     *
+     * @param conferenceKey the key of the Conference.
+     * @param userId the id of the user.
+     * @return the key of the SeatHold.
+     */
+    public static Key<SeatHold> key(Key<Conference> conferenceKey, String userId) {
+        return Key.create(conferenceKey, SeatHold.class, userId);
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Key<Conference> getConferenceKey() {
+        return conferenceKey;
+    }
+
+    public String getWebsafeConferenceKey() {
+        return conferenceKey.getString();
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public Date getExpiresAt() {
+        return new Date(expiresAt.getTime());
+    }
+
+    /**
+     * Returns whether the hold has expired and its seat is due to be given back.
+     *
+     * @param now the current time.
+     * @return true when the hold expired at or before now.
+     */
+    public boolean hasExpired(Date now) {
+        return !expiresAt.after(now);
+    }
+}
@@ -0,0 +1,38 @@
+package com.google.devrel.training.conference.domain;
+
+/**
+ * The seats available for a Conference at a version of the seat feed, as returned by the
+ * watchSeats API.
+ */
+public class SeatUpdate {
+
+    private String websafeConferenceKey;
+
+    private int seatsAvailable;
+
+    private long version;
+
+    public SeatUpdate() {}
+
+    public SeatUpdate(String websafeConferenceKey, int seatsAvailable, long version) {
+        this.websafeConferenceKey = websafeConferenceKey;
+        this.seatsAvailable = seatsAvailable;
+        this.version = version;
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    public int getSeatsAvailable() {
+        return seatsAvailable;
+    }
+
+    /**
+     * Returns the version of the seat count, to pass to the next watchSeats call.
+     * @return the version, in milliseconds since the epoch of the change.
+     */
+    public long getVersion() {
+        return version;
+    }
+}
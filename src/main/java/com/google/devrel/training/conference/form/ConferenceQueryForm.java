@@ -4,13 +4,19 @@ import static com.google.devrel.training.conference.service.OfyService.ofy;
 
 import com.google.api.server.spi.config.AnnotationBoolean;
 import com.google.api.server.spi.config.ApiResourceProperty;
+import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
 import com.google.devrel.training.conference.domain.Conference;
 
 import com.googlecode.objectify.cmd.Query;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.List;
+import java.util.TreeSet;
 import java.util.logging.Logger;
 
 /**
@@ -34,7 +40,13 @@ public class ConferenceQueryForm {
         CITY("city", FieldType.STRING),
         TOPIC("topics", FieldType.STRING),
         MONTH("month", FieldType.INTEGER),
-        MAX_ATTENDEES("maxAttendees", FieldType.INTEGER);
+        MAX_ATTENDEES("maxAttendees", FieldType.INTEGER),
+        /**
+         * The Availability bucket of the seats, such as SOLD_OUT. The exact count is not
+         * indexed, so that registrations do not rewrite index rows.
+         */
+        AVAILABILITY("availability", FieldType.STRING),
+        DAY("days", FieldType.INTEGER);
 
         private String fieldName;
 
@@ -48,6 +60,30 @@ public class ConferenceQueryForm {
         private String getFieldName() {
             return this.fieldName;
         }
+
+        /**
+         * Returns the values of this field on the given Conference, as the datastore indexes them.
+         */
+        private List<Object> getValues(Conference conference) {
+            switch (this) {
+                case CITY:
+                    return conference.getCity() == null
+                            ? ImmutableList.of() : ImmutableList.<Object>of(conference.getCity());
+                case TOPIC:
+                    return conference.getTopics() == null
+                            ? ImmutableList.of() : ImmutableList.<Object>copyOf(conference.getTopics());
+                case MONTH:
+                    return ImmutableList.<Object>of(conference.getMonth());
+                case AVAILABILITY:
+                    return conference.getAvailability() == null
+                            ? ImmutableList.of()
+                            : ImmutableList.<Object>of(conference.getAvailability().name());
+                case DAY:
+                    return ImmutableList.<Object>copyOf(conference.getDays());
+                default:
+                    return ImmutableList.<Object>of(conference.getMaxAttendees());
+            }
+        }
     }
 
     /**
@@ -59,7 +95,11 @@ public class ConferenceQueryForm {
         GT(">"),
         LTEQ("<="),
         GTEQ(">="),
-        NE("!=");
+        NE("!="),
+        /**
+         * Matches any of the filter values. Run as one sub-query per value, see branches().
+         */
+        IN("in");
 
         private String queryOperator;
 
@@ -75,6 +115,71 @@ public class ConferenceQueryForm {
             return this.queryOperator.contains("<") || this.queryOperator.contains(">") ||
                     this.queryOperator.contains("!");
         }
+
+        private boolean isSetFilter() {
+            return this == IN;
+        }
+
+        /**
+         * Applies this operator to the result of comparing an entity value with the filter value.
+         */
+        private boolean accepts(int comparison) {
+            switch (this) {
+                case EQ:
+                    return comparison == 0;
+                case LT:
+                    return comparison < 0;
+                case GT:
+                    return comparison > 0;
+                case LTEQ:
+                    return comparison <= 0;
+                case GTEQ:
+                    return comparison >= 0;
+                default:
+                    return comparison != 0;
+            }
+        }
+    }
+
+    /**
+     * Enum representing a ranking of the matching Conferences, best first.
+     */
+    public static enum Rank {
+        /**
+         * Fewest seats available first, so add an AVAILABILITY NE SOLD_OUT filter to skip the
+         * Conferences that are sold out. Ranked in memory, since seatsAvailable is not indexed.
+         */
+        SEATS_AVAILABLE(null),
+        /**
+         * Highest share of seats taken first.
+         */
+        FILL_RATIO(null),
+        /**
+         * Largest Conferences first.
+         */
+        MAX_ATTENDEES("-maxAttendees");
+
+        /**
+         * The datastore sort order giving this ranking, if there is one.
+         */
+        private String indexOrder;
+
+        private Rank(String indexOrder) {
+            this.indexOrder = indexOrder;
+        }
+
+        private double score(Conference conference) {
+            switch (this) {
+                case SEATS_AVAILABLE:
+                    return conference.getSeatsAvailable();
+                case FILL_RATIO:
+                    int maxAttendees = conference.getMaxAttendees();
+                    return maxAttendees <= 0 ? 1
+                            : (double) conference.getSeatsAvailable() / maxAttendees;
+                default:
+                    return -conference.getMaxAttendees();
+            }
+        }
     }
 
     /**
@@ -84,6 +189,7 @@ public class ConferenceQueryForm {
         private Field field;
         private Operator operator;
         private String value;
+        private List<String> values;
 
         public Filter () {}
 
@@ -93,6 +199,15 @@ public class ConferenceQueryForm {
             this.value = value;
         }
 
+        /**
+         * Creates an IN filter matching any of the given values.
+         */
+        public Filter(Field field, List<String> values) {
+            this.field = field;
+            this.operator = Operator.IN;
+            this.values = new ArrayList<>(values);
+        }
+
         public Field getField() {
             return field;
         }
@@ -104,26 +219,155 @@ public class ConferenceQueryForm {
         public String getValue() {
             return value;
         }
+
+        /**
+         * Returns the values of an IN filter.
+         * @return the List of values, empty for the other operators.
+         */
+        public List<String> getValues() {
+            return values == null ? ImmutableList.<String>of() : ImmutableList.copyOf(values);
+        }
+
+        /**
+         * Splits an IN filter into one EQ filter per distinct value, and returns any other
+         * filter as it is.
+         */
+        private List<Filter> expand() {
+            if (!operator.isSetFilter()) {
+                return ImmutableList.of(this);
+            }
+            List<Filter> expanded = new ArrayList<>(0);
+            for (String each : new TreeSet<>(getValues())) {
+                expanded.add(new Filter(field, Operator.EQ, each));
+            }
+            return expanded;
+        }
+
+        /**
+         * Returns a description of the filter that does not depend on the order of IN values.
+         */
+        private String describe() {
+            String described = operator.isSetFilter()
+                    ? Joiner.on(',').join(new TreeSet<>(getValues())) : value;
+            return field + " " + operator + " " + described;
+        }
+
+        /**
+         * Returns the filter value converted to the type of the field.
+         */
+        private Object getTypedValue() {
+            return field.fieldType == FieldType.INTEGER ? Integer.valueOf(value) : value;
+        }
+
+        /**
+         * Checks the filter the way the datastore does for multi-valued properties: the
+         * Conference matches when any of its values satisfies the filter.
+         */
+        private boolean accepts(Conference conference) {
+            if (operator.isSetFilter()) {
+                for (Filter each : expand()) {
+                    if (each.accepts(conference)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            for (Object conferenceValue : field.getValues(conference)) {
+                if (acceptsValue(conferenceValue)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Checks a single value of the field against a filter that is not a set filter.
+         */
+        private boolean acceptsValue(Object conferenceValue) {
+            return operator.accepts(compareValues(conferenceValue, getTypedValue()));
+        }
     }
 
+    /**
+     * The most sub-queries a single query may expand into, as with the datastore's own IN.
+     */
+    public static final int MAX_BRANCHES = 30;
+
     /**
      * A list of query filters.
      */
     private List<Filter> filters = new ArrayList<>(0);
 
     /**
-     * Holds the first inequalityFilter for checking the feasibility of the whole query.
+     * Alternative filters, at least one of which must match when there are any.
      */
-    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
-    private Filter inequalityFilter;
+    private List<Filter> orFilters = new ArrayList<>(0);
+
+    /**
+     * The maximum number of Conferences to return, all of them if not set.
+     */
+    private Integer pageSize;
+
+    /**
+     * The number of top ranked Conferences returned when no page size is set.
+     */
+    public static final int DEFAULT_TOP_K = 20;
+
+    /**
+     * Returns only the top ranked Conferences by this ranking instead of all of them by name,
+     * if set.
+     */
+    private Rank rankBy;
+
+    /**
+     * Only Conferences running on or after this date match, if set.
+     */
+    private Date fromDate;
+
+    /**
+     * Only Conferences running on or before this date match, if set.
+     */
+    private Date toDate;
+
+    /**
+     * Whether archived Conferences are searched too. By default only Conferences that have
+     * not ended, or ended recently, match.
+     */
+    private boolean includeArchived;
 
     public ConferenceQueryForm() {}
 
     /**
-     * Checks the feasibility of the whole query.
+     * Returns the filters together with the DAY range filters derived from fromDate and toDate.
+     *
+     * A Conference overlaps the range when one of its days lies inside it, which is exactly
+     * what the datastore returns for inequality filters on the multi-valued days property.
      */
-    private void checkFilters() {
-        for (Filter filter : this.filters) {
+    private List<Filter> getAllFilters() {
+        if (fromDate == null && toDate == null) {
+            return this.filters;
+        }
+        List<Filter> allFilters = new ArrayList<>(this.filters);
+        if (fromDate != null) {
+            allFilters.add(new Filter(Field.DAY, Operator.GTEQ,
+                    String.valueOf(Conference.toDay(fromDate))));
+        }
+        if (toDate != null) {
+            allFilters.add(new Filter(Field.DAY, Operator.LTEQ,
+                    String.valueOf(Conference.toDay(toDate))));
+        }
+        return allFilters;
+    }
+
+    /**
+     * Returns the inequality filter the query is sorted by, checking that all inequality
+     * filters are on the same field.
+     *
+     * @return the last inequality filter, or null if there is none.
+     */
+    private Filter findInequalityFilter() {
+        Filter inequalityFilter = null;
+        for (Filter filter : Iterables.concat(getAllFilters(), orFilters)) {
             if (filter.operator.isInequalityFilter()) {
                 // Only one inequality filter is allowed.
                 if (inequalityFilter != null && !inequalityFilter.field.equals(filter.field)) {
@@ -133,6 +377,43 @@ public class ConferenceQueryForm {
                 inequalityFilter = filter;
             }
         }
+        return inequalityFilter;
+    }
+
+    /**
+     * Checks the feasibility of the whole query. Every sub-query must be sorted by the same
+     * field for branches to be merged, so an inequality in an alternative filter needs one in
+     * all alternatives, unless the plain filters have one.
+     *
+     * @return the inequality filter the query is sorted by, or null if there is none.
+     */
+    private Filter checkFilters() {
+        Filter inequalityFilter = findInequalityFilter();
+        if (inequalityFilter == null || orFilters.isEmpty()) {
+            return inequalityFilter;
+        }
+        for (Filter filter : getAllFilters()) {
+            if (filter.operator.isInequalityFilter()) {
+                return inequalityFilter;
+            }
+        }
+        for (Filter filter : orFilters) {
+            if (!filter.operator.isInequalityFilter()) {
+                throw new IllegalArgumentException("An inequality alternative filter is allowed "
+                        + "only when all alternative filters are inequalities.");
+            }
+        }
+        return inequalityFilter;
+    }
+
+    /**
+     * Checks that the filters can be run as datastore queries, as getQuery() and branches()
+     * do, for repositories that evaluate them in memory.
+     *
+     * @throws IllegalArgumentException when the filters cannot be run as queries.
+     */
+    public void validate() {
+        checkFilters();
     }
 
     /**
@@ -144,6 +425,68 @@ public class ConferenceQueryForm {
         return ImmutableList.copyOf(filters);
     }
 
+    /**
+     * Getter for the alternative filters.
+     *
+     * @return The List of filters of which at least one must match.
+     */
+    public List<Filter> getOrFilters() {
+        return ImmutableList.copyOf(orFilters);
+    }
+
+    /**
+     * Returns the maximum number of Conferences to return.
+     * @return the page size, or null for no limit.
+     */
+    public Integer getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Returns the ranking of the results.
+     * @return the Rank, or null for the default order.
+     */
+    public Rank getRankBy() {
+        return rankBy;
+    }
+
+    /**
+     * Returns whether archived Conferences are searched too.
+     * @return true when the query includes the archive.
+     */
+    public boolean isIncludeArchived() {
+        return includeArchived;
+    }
+
+    /**
+     * Returns a defensive copy of fromDate if not null.
+     * @return a defensive copy of fromDate if not null.
+     */
+    public Date getFromDate() {
+        return fromDate == null ? null : new Date(fromDate.getTime());
+    }
+
+    /**
+     * Returns a defensive copy of toDate if not null.
+     * @return a defensive copy of toDate if not null.
+     */
+    public Date getToDate() {
+        return toDate == null ? null : new Date(toDate.getTime());
+    }
+
+    /**
+     * Restricts the query to Conferences running at some point between the given dates.
+     *
+     * @param fromDate the first day of the range, or null for no lower bound.
+     * @param toDate the last day of the range, or null for no upper bound.
+     * @return this for method chaining.
+     */
+    public ConferenceQueryForm dateRange(Date fromDate, Date toDate) {
+        this.fromDate = fromDate == null ? null : new Date(fromDate.getTime());
+        this.toDate = toDate == null ? null : new Date(toDate.getTime());
+        return this;
+    }
+
     /**
      * Adds a query filter.
      *
@@ -153,27 +496,205 @@ public class ConferenceQueryForm {
     public ConferenceQueryForm filter(Filter filter) {
         if (filter.operator.isInequalityFilter()) {
             // Only allows inequality filters on a single field.
+            Filter inequalityFilter = findInequalityFilter();
             if (inequalityFilter != null && !inequalityFilter.field.equals(filter.field)) {
                 throw new IllegalArgumentException(
                         "Inequality filter is allowed on only one field.");
             }
-            inequalityFilter = filter;
         }
         filters.add(filter);
         return this;
     }
 
+    /**
+     * Adds an alternative filter. A Conference matches when it satisfies all filters and at
+     * least one of the alternative filters.
+     *
+     * @param filter A Filter object for the query.
+     * @return this for method chaining.
+     */
+    public ConferenceQueryForm orFilter(Filter filter) {
+        orFilters.add(filter);
+        findInequalityFilter();
+        return this;
+    }
+
+    /**
+     * Searches archived Conferences too.
+     *
+     * @param includeArchived whether the query includes the archive.
+     * @return this for method chaining.
+     */
+    public ConferenceQueryForm includeArchived(boolean includeArchived) {
+        this.includeArchived = includeArchived;
+        return this;
+    }
+
+    /**
+     * Limits the number of Conferences returned.
+     *
+     * @param pageSize the maximum number of Conferences, or null for no limit.
+     * @return this for method chaining.
+     */
+    public ConferenceQueryForm pageSize(Integer pageSize) {
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * Returns the top ranked Conferences only, see {@link #topK()}.
+     *
+     * @param rankBy the ranking, or null for the default order.
+     * @return this for method chaining.
+     */
+    public ConferenceQueryForm rankBy(Rank rankBy) {
+        this.rankBy = rankBy;
+        return this;
+    }
+
+    /**
+     * Returns how many Conferences a ranked query returns: the page size, or DEFAULT_TOP_K.
+     *
+     * @return the number of top ranked Conferences to return.
+     */
+    public int topK() {
+        return pageSize == null ? DEFAULT_TOP_K : pageSize;
+    }
+
+    /**
+     * Returns whether the datastore can return the ranked Conferences directly, in the order
+     * of a built-in single-property index. That takes a ranking that is a plain sort order and
+     * no filters on any other property.
+     *
+     * Otherwise a ranked query streams all matches and keeps the top ones, see
+     * {@link #ranking()}.
+     *
+     * @return true when {@link #getQuery()} returns the top ranked Conferences.
+     */
+    public boolean ranksInIndex() {
+        if (rankBy == null || rankBy.indexOrder == null || hasBranches()
+                || fromDate != null || toDate != null) {
+            return false;
+        }
+        String rankField = rankBy.indexOrder.replace("-", "");
+        for (Filter filter : filters) {
+            if (!filter.field.getFieldName().equals(rankField)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the order of the ranking, best first and then by name.
+     *
+     * @return a Comparator for Conferences, or null when the query is not ranked.
+     */
+    public Comparator<Conference> ranking() {
+        if (rankBy == null) {
+            return null;
+        }
+        final Rank rank = rankBy;
+        return new Comparator<Conference>() {
+            @Override
+            public int compare(Conference left, Conference right) {
+                int result = Double.compare(rank.score(left), rank.score(right));
+                return result != 0 ? result : compareValues(left.getName(), right.getName());
+            }
+        };
+    }
+
+    /**
+     * Returns whether the query has IN or OR filters, which a single datastore query cannot
+     * run. Such a query runs as the sub-queries returned by {@link #branches()}.
+     *
+     * @return true when the query must be split into sub-queries.
+     */
+    public boolean hasBranches() {
+        if (!orFilters.isEmpty()) {
+            return true;
+        }
+        for (Filter filter : filters) {
+            if (filter.operator.isSetFilter()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Splits the query into plain sub-queries whose union is the query: one per combination
+     * of IN values and alternative filters. checkFilters() makes sure that either no sub-query
+     * or every sub-query has an inequality filter, all on the same field, so they are sorted
+     * the same way, see {@link #ordering()}.
+     *
+     * @return the sub-query forms, without page size.
+     * @throws IllegalArgumentException when there would be more than MAX_BRANCHES sub-queries,
+     *         or only some alternative filters are inequalities.
+     */
+    public List<ConferenceQueryForm> branches() {
+        checkFilters();
+        List<List<Filter>> combinations = new ArrayList<>(0);
+        combinations.add(new ArrayList<Filter>(0));
+        for (Filter filter : filters) {
+            combinations = combine(combinations, filter.expand());
+        }
+        if (!orFilters.isEmpty()) {
+            List<Filter> alternatives = new ArrayList<>(0);
+            for (Filter filter : orFilters) {
+                alternatives.addAll(filter.expand());
+            }
+            combinations = combine(combinations, alternatives);
+        }
+        List<ConferenceQueryForm> branches = new ArrayList<>(0);
+        for (List<Filter> combination : combinations) {
+            ConferenceQueryForm branch = new ConferenceQueryForm().dateRange(fromDate, toDate);
+            for (Filter filter : combination) {
+                branch.filter(filter);
+            }
+            branches.add(branch);
+        }
+        return branches;
+    }
+
+    private static List<List<Filter>> combine(List<List<Filter>> combinations,
+                                              List<Filter> choices) {
+        if (combinations.size() * choices.size() > MAX_BRANCHES) {
+            throw new IllegalArgumentException(
+                    "IN and OR filters are allowed up to " + MAX_BRANCHES + " combinations.");
+        }
+        List<List<Filter>> combined = new ArrayList<>(0);
+        for (List<Filter> combination : combinations) {
+            for (Filter choice : choices) {
+                List<Filter> extended = new ArrayList<>(combination);
+                extended.add(choice);
+                combined.add(extended);
+            }
+        }
+        return combined;
+    }
+
     /**
      * Returns an Objectify Query object for the specified filters.
      *
+     * A ranked query is ordered by the ranking when {@link #ranksInIndex()}, and limited to the
+     * top ones, and otherwise returns all matches in the default order.
+     *
      * @return an Objectify Query.
+     * @throws IllegalStateException when the query has IN or OR filters, see branches().
      */
     @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
     public Query<Conference> getQuery() {
+        if (hasBranches()) {
+            throw new IllegalStateException("Run queries with IN or OR filters as branches().");
+        }
         // First check the feasibility of inequality filters.
-        checkFilters();
+        Filter inequalityFilter = checkFilters();
         Query<Conference> query = ofy().load().type(Conference.class);
-        if (inequalityFilter == null) {
+        if (ranksInIndex()) {
+            // Ties are returned in key order rather than by name.
+            query = query.order(rankBy.indexOrder);
+        } else if (inequalityFilter == null) {
             // Order by name.
             query = query.order("name");
         } else {
@@ -181,7 +702,7 @@ public class ConferenceQueryForm {
             query = query.order(inequalityFilter.field.getFieldName());
             query = query.order("name");
         }
-        for (Filter filter : this.filters) {
+        for (Filter filter : getAllFilters()) {
             // Applies filters in order.
             if (filter.field.fieldType == FieldType.STRING) {
                 query = query.filter(String.format("%s %s", filter.field.getFieldName(),
@@ -191,7 +712,154 @@ public class ConferenceQueryForm {
                         filter.operator.getQueryOperator()), Integer.parseInt(filter.value));
             }
         }
+        if (ranksInIndex()) {
+            query = query.limit(topK());
+        } else if (pageSize != null && rankBy == null) {
+            query = query.limit(pageSize);
+        }
         LOG.info(query.toString());
         return query;
     }
+
+    /**
+     * Returns a String that is equal for forms matching the same Conferences, whatever
+     * the order of their filters, for use as a cache key. The page size is not part of it,
+     * the ranking and whether the archive is searched are.
+     *
+     * @return a canonical description of the query.
+     */
+    public String toCacheKey() {
+        List<String> parts = new ArrayList<>(0);
+        for (Filter filter : getAllFilters()) {
+            parts.add(filter.describe());
+        }
+        Collections.sort(parts);
+        if (!orFilters.isEmpty()) {
+            List<String> alternatives = new ArrayList<>(0);
+            for (Filter filter : orFilters) {
+                alternatives.add(filter.describe());
+            }
+            Collections.sort(alternatives);
+            parts.add("OR(" + Joiner.on('|').join(alternatives) + ")");
+        }
+        if (rankBy != null) {
+            parts.add("RANK(" + rankBy + ")");
+        }
+        if (includeArchived) {
+            parts.add("ARCHIVED");
+        }
+        return Joiner.on('|').join(parts);
+    }
+
+    /**
+     * Checks the specified filters against a Conference held in memory, with the same semantics
+     * as the query returned by {@link #getQuery()}.
+     *
+     * @param conference the Conference to check.
+     * @return true when the Conference satisfies all filters.
+     */
+    public boolean matches(Conference conference) {
+        for (Filter filter : getAllFilters()) {
+            if (!filter.accepts(conference)) {
+                return false;
+            }
+        }
+        if (orFilters.isEmpty()) {
+            return true;
+        }
+        for (Filter filter : orFilters) {
+            if (filter.accepts(conference)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the order of the query returned by {@link #getQuery()}: by the inequality field
+     * if there is one, then by name.
+     *
+     * The datastore sorts a multi-valued property by the smallest of its values that satisfies
+     * the inequality filters on it. With IN or alternative filters, a Conference is sorted by
+     * the smallest such value over the sub-queries it matches, so each sub-query stays sorted
+     * for the copies of its Conferences that are not duplicates of an earlier one.
+     *
+     * @return a Comparator for Conferences.
+     */
+    public Comparator<Conference> ordering() {
+        Filter inequalityFilter = checkFilters();
+        final Field orderField = inequalityFilter == null ? null : inequalityFilter.field;
+        final List<ConferenceQueryForm> branches =
+                orderField != null && hasBranches() ? branches() : null;
+        return new Comparator<Conference>() {
+            @Override
+            public int compare(Conference left, Conference right) {
+                if (orderField != null) {
+                    int result = compareValues(sortValue(left), sortValue(right));
+                    if (result != 0) {
+                        return result;
+                    }
+                }
+                return compareValues(left.getName(), right.getName());
+            }
+
+            private Object sortValue(Conference conference) {
+                if (branches == null) {
+                    return ConferenceQueryForm.this.sortValue(orderField, conference);
+                }
+                Object min = null;
+                boolean matched = false;
+                for (ConferenceQueryForm branch : branches) {
+                    if (branch.matches(conference)) {
+                        Object value = branch.sortValue(orderField, conference);
+                        if (!matched || compareValues(value, min) < 0) {
+                            min = value;
+                            matched = true;
+                        }
+                    }
+                }
+                return min;
+            }
+        };
+    }
+
+    /**
+     * Returns the smallest value of the field that satisfies all the inequality filters on it.
+     */
+    private Object sortValue(Field field, Conference conference) {
+        List<Filter> inequalityFilters = new ArrayList<>(0);
+        for (Filter filter : getAllFilters()) {
+            if (filter.field == field && filter.operator.isInequalityFilter()) {
+                inequalityFilters.add(filter);
+            }
+        }
+        Object min = null;
+        for (Object value : field.getValues(conference)) {
+            if (acceptsAll(inequalityFilters, value)
+                    && (min == null || compareValues(value, min) < 0)) {
+                min = value;
+            }
+        }
+        return min;
+    }
+
+    private static boolean acceptsAll(List<Filter> filters, Object value) {
+        for (Filter filter : filters) {
+            if (!filter.acceptsValue(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares two values of the same field, sorting a missing value first.
+     */
+    @SuppressWarnings("unchecked")
+    private static int compareValues(Object left, Object right) {
+        if (left == null || right == null) {
+            return left == null ? (right == null ? 0 : -1) : 1;
+        }
+        return ((Comparable<Object>) left).compareTo(right);
+    }
 }
@@ -0,0 +1,37 @@
+package com.google.devrel.training.conference.repository;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.domain.Conference;
+
+import java.util.List;
+
+/**
+ * One page of Conferences, with the cursor to the next page.
+ */
+public class ConferencePage {
+
+    private final List<Conference> conferences;
+
+    private final String cursor;
+
+    /**
+     * @param conferences the Conferences on this page.
+     * @param cursor where the next page starts, null when this is the last page.
+     */
+    public ConferencePage(List<Conference> conferences, String cursor) {
+        this.conferences = ImmutableList.copyOf(conferences);
+        this.cursor = cursor;
+    }
+
+    public List<Conference> getConferences() {
+        return conferences;
+    }
+
+    /**
+     * Returns the cursor to pass back for the next page.
+     * @return the cursor, or null when there are no more pages.
+     */
+    public String getCursor() {
+        return cursor;
+    }
+}
@@ -0,0 +1,291 @@
+package com.google.devrel.training.conference.repository;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Dashboard;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Recommendation;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Persistence operations for Conferences, Profiles and seats.
+ *
+ * Entities returned by a repository belong to the caller, who may change them and hand them
+ * back to a save method. Use RepositoryService.repository() to get the configured backend.
+ */
+public interface ConferenceRepository {
+
+    /**
+     * Returns the Profile of the given user.
+     *
+     * @param userId the id of the user.
+     * @return the Profile, or null when the user has none.
+     */
+    Profile loadProfile(String userId);
+
+    /**
+     * Stores the given Profile.
+     *
+     * @param profile the Profile to store.
+     */
+    void saveProfile(Profile profile);
+
+    /**
+     * Returns the Conference with the given key, from the archive if it was archived.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the Conference, or null when there is none.
+     */
+    Conference loadConference(String websafeConferenceKey);
+
+    /**
+     * Reads the current seat count of a Conference, bypassing the in-process caches that
+     * loadConference() is served from.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the number of seats available, or -1 when there is no such Conference.
+     */
+    int loadSeatsAvailable(String websafeConferenceKey);
+
+    /**
+     * Returns the Conferences with the given keys, in the same order, skipping missing ones.
+     * Archived Conferences are returned from the archive.
+     *
+     * @param websafeConferenceKeys The String representations of the Conference Keys.
+     * @return a List of Conferences.
+     */
+    List<Conference> loadConferences(List<String> websafeConferenceKeys);
+
+    /**
+     * Creates and stores a new Conference together with its organizer's Profile, unless an
+     * earlier request with the same idempotency key did.
+     *
+     * @param defaultOrganizer the Profile to store when the organizer has none yet.
+     * @param conferenceForm contains form data sent from the client.
+     * @param idempotencyId the id of the IdempotencyRecord stored with the Conference, null
+     *                      when the request carries no idempotency key.
+     * @return the Conference just created, or the one the earlier request created.
+     */
+    Conference createConference(Profile defaultOrganizer, ConferenceForm conferenceForm,
+                                String idempotencyId);
+
+    /**
+     * Returns the Conferences matching the given query form, in the form's order.
+     *
+     * @param conferenceQueryForm the query options.
+     * @return a List of Conferences.
+     */
+    List<Conference> queryConferences(ConferenceQueryForm conferenceQueryForm);
+
+    /**
+     * Counts the Conferences matching the given query form without loading them.
+     *
+     * @param conferenceQueryForm the query options.
+     * @param limit the count at which to stop counting.
+     * @return the number of matches, at most limit.
+     */
+    int countConferences(ConferenceQueryForm conferenceQueryForm, int limit);
+
+    /**
+     * Returns the Conferences organized by the given user.
+     *
+     * @param userId the id of the organizer.
+     * @return a List of Conferences.
+     */
+    List<Conference> getConferencesCreated(String userId);
+
+    /**
+     * Loads the user's Profile, the Conferences the user organizes and the Conferences the
+     * user is going to attend, together.
+     *
+     * @param userId the id of the user.
+     * @return the Dashboard, with a null Profile when the user has none.
+     */
+    Dashboard loadDashboard(String userId);
+
+    /**
+     * Returns the Conferences changed after the given time, in the order of their changes,
+     * including those whose seat count alone changed. A Conference may be returned twice.
+     *
+     * @param since the time after which the Conferences changed.
+     * @param cursor the cursor of the previous page, null for the first page.
+     * @param limit the maximum number of Conferences on the page.
+     * @return a ConferencePage.
+     * @throws IllegalArgumentException when the cursor is not valid.
+     */
+    ConferencePage getConferencesChangedSince(Date since, String cursor, int limit);
+
+    /**
+     * Returns the websafe keys of the Conferences removed after the given time.
+     *
+     * @param since the time after which the Conferences were removed.
+     * @return a List of websafe Conference keys.
+     */
+    List<String> getRemovedSince(Date since);
+
+    /**
+     * Returns Conferences with at least one but fewer than maxSeats seats available.
+     *
+     * @param maxSeats the exclusive upper bound on seatsAvailable, at most
+     *        Availability.FEW_SEATS so that the Conferences are all in the LIMITED bucket.
+     * @param limit the maximum number of Conferences to return.
+     * @return a List of Conferences.
+     */
+    List<Conference> getNearlySoldOut(int maxSeats, int limit);
+
+    /**
+     * Returns the Conferences that ended before the given day, scanning a batch of the
+     * Conferences that started before it.
+     *
+     * @param day the first day, as a yyyymmdd number, on which a Conference has not ended.
+     * @param cursor the cursor of the previous batch, null for the first batch.
+     * @param limit the number of Conferences to scan.
+     * @return a ConferencePage of the ended Conferences in the batch, with the cursor of the
+     *         next batch, which is null once the scan is complete.
+     * @throws IllegalArgumentException when the cursor is not valid.
+     */
+    ConferencePage getEndedConferences(int day, String cursor, int limit);
+
+    /**
+     * Saves again the Conferences stored before the days index existed, scanning a batch of
+     * the Conferences in key order, so that date range queries find them.
+     *
+     * @param cursor the cursor of the previous batch, null for the first batch.
+     * @param limit the number of Conferences to scan.
+     * @return a ConferencePage of the Conferences indexed in the batch, with the cursor of the
+     *         next batch, which is null once the scan is complete.
+     * @throws IllegalArgumentException when the cursor is not valid.
+     */
+    ConferencePage indexConferenceDays(String cursor, int limit);
+
+    /**
+     * Deletes a batch of the IdempotencyRecords created before the given time.
+     *
+     * @param before the time before which records have expired.
+     * @param limit the most records to delete.
+     * @return the number of records deleted, less than limit once none are left.
+     */
+    int deleteIdempotencyRecordsCreatedBefore(Date before, int limit);
+
+    /**
+     * Moves the given Conferences to the archive and records them as removed.
+     *
+     * @param conferences the Conferences to archive.
+     * @param archivedAt the time of the removal.
+     */
+    void archiveConferences(List<Conference> conferences, Date archivedAt);
+
+    /**
+     * Searches the archived Conferences, most recently ended first.
+     *
+     * @param conferenceQueryForm the query options.
+     * @param limit the maximum number of Conferences to return.
+     * @return a List of matching archived Conferences.
+     */
+    List<Conference> queryArchivedConferences(ConferenceQueryForm conferenceQueryForm,
+                                              int limit);
+
+    /**
+     * Returns every Conference, for batch jobs over the whole catalog.
+     *
+     * @return a List of Conferences in no particular order.
+     */
+    List<Conference> getAllConferences();
+
+    /**
+     * Returns every Profile, for batch jobs over all users.
+     *
+     * @return a List of Profiles in no particular order.
+     */
+    List<Profile> getAllProfiles();
+
+    /**
+     * Returns the precomputed recommendations of the given user.
+     *
+     * @param userId the id of the user.
+     * @return the Recommendation, or null when there is none.
+     */
+    Recommendation loadRecommendation(String userId);
+
+    /**
+     * Stores the given Recommendations, replacing the previous ones of their users.
+     *
+     * @param recommendations the Recommendations to store.
+     */
+    void saveRecommendations(List<Recommendation> recommendations);
+
+    /**
+     * Atomically books a seat and adds the Conference to the user's Profile, unless an earlier
+     * request with the same idempotency key did.
+     *
+     * @param defaultProfile the Profile to store when the user has none yet.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param idempotencyId the id of the IdempotencyRecord stored with the registration, null
+     *                      when the request carries no idempotency key.
+     * @return the SeatResult, REGISTERED for the earlier request's registration too.
+     */
+    SeatResult registerForConference(Profile defaultProfile, String websafeConferenceKey,
+                                     String idempotencyId);
+
+    /**
+     * Atomically gives a seat back and removes the Conference from the user's Profile.
+     *
+     * @param userId the id of the user.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the SeatResult.
+     */
+    SeatResult unregisterFromConference(String userId, String websafeConferenceKey);
+
+    /**
+     * Atomically takes a seat and holds it for the user until expiresAt. A user who already
+     * holds a seat keeps it; an expired hold that has not been released yet is renewed.
+     *
+     * @param userId the id of the user.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param expiresAt when a new hold expires.
+     * @return HELD with the SeatHold, or NOT_FOUND, ALREADY_REGISTERED or NO_SEATS.
+     */
+    SeatResult holdSeat(String userId, String websafeConferenceKey, Date expiresAt);
+
+    /**
+     * Atomically turns the user's hold into a registration. The held seat is already taken,
+     * so only the Profile changes. An expired hold gives its seat back instead.
+     *
+     * @param defaultProfile the Profile to store when the user has none yet.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param now the current time.
+     * @return REGISTERED, or NOT_FOUND, NOT_HELD or ALREADY_REGISTERED.
+     */
+    SeatResult confirmHold(Profile defaultProfile, String websafeConferenceKey, Date now);
+
+    /**
+     * Atomically removes the user's hold and gives its seat back.
+     *
+     * @param userId the id of the user.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return RELEASED, or NOT_HELD.
+     */
+    SeatResult releaseHold(String userId, String websafeConferenceKey);
+
+    /**
+     * Removes the expired holds on a Conference and gives their seats back, in one seat write.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param now the current time.
+     * @param limit the most holds to release.
+     * @return the number of holds released.
+     */
+    int releaseExpiredHolds(String websafeConferenceKey, Date now, int limit);
+
+    /**
+     * Returns the Conferences that have expired holds.
+     *
+     * @param now the current time.
+     * @param limit the most holds to look at.
+     * @return a List of websafe Conference keys.
+     */
+    List<String> getConferencesWithExpiredHolds(Date now, int limit);
+}
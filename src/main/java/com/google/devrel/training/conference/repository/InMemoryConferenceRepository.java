@@ -0,0 +1,691 @@
+package com.google.devrel.training.conference.repository;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Ordering;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Dashboard;
+import com.google.devrel.training.conference.domain.IdempotencyRecord;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Recommendation;
+import com.google.devrel.training.conference.domain.SeatHold;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.repository.SeatResult.Status;
+import com.google.devrel.training.conference.service.Metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ConferenceRepository that keeps everything in concurrent maps, for load tests and fast
+ * single-node runs. Nothing survives a restart.
+ *
+ * Stored entities are never modified: every update copies the current entity, changes the copy
+ * and swaps it in with a compare-and-set, retrying when another thread won the race. There is
+ * no global lock, so updates to different Conferences and Profiles never contend. Registration
+ * claims the seat first and then updates the Profile, giving the seat back if the Profile
+ * update turns out to be a duplicate.
+ */
+public class InMemoryConferenceRepository implements ConferenceRepository {
+
+    private static final Comparator<Conference> BY_ID = new Comparator<Conference>() {
+        @Override
+        public int compare(Conference left, Conference right) {
+            return Long.compare(left.getId(), right.getId());
+        }
+    };
+
+    private static final Comparator<Conference> BY_END_DATE_DESCENDING =
+            new Comparator<Conference>() {
+                @Override
+                public int compare(Conference left, Conference right) {
+                    return right.getEndDate().compareTo(left.getEndDate());
+                }
+            };
+
+    private final ConcurrentMap<String, Profile> profiles = new ConcurrentHashMap<>();
+
+    /**
+     * Conferences by their websafe key.
+     */
+    private final ConcurrentMap<String, Conference> conferences = new ConcurrentHashMap<>();
+
+    /**
+     * Archived Conferences by their websafe key.
+     */
+    private final ConcurrentMap<String, Conference> archived = new ConcurrentHashMap<>();
+
+    /**
+     * When Conferences were removed, by websafe key.
+     */
+    private final ConcurrentMap<String, Date> removed = new ConcurrentHashMap<>();
+
+    /**
+     * When the seat counts of Conferences were last changed, by websafe key. A seat change
+     * within the same availability bucket leaves the Conference's lastModified alone, as it
+     * does in the datastore.
+     */
+    private final ConcurrentMap<String, Date> seatsModified = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Recommendation> recommendations =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Seat holds by websafe Conference key and user id, see holdKey().
+     */
+    private final ConcurrentMap<String, SeatHold> holds = new ConcurrentHashMap<>();
+
+    /**
+     * Claims of requests with an idempotency key, by user id and record id, see recordKey().
+     */
+    private final ConcurrentMap<String, IdempotencyClaim> idempotencyRecords =
+            new ConcurrentHashMap<>();
+
+    private final AtomicLong nextId = new AtomicLong();
+
+    @Override
+    public Profile loadProfile(String userId) {
+        Profile profile = profiles.get(userId);
+        return profile == null ? null : profile.copy();
+    }
+
+    @Override
+    public void saveProfile(Profile profile) {
+        if (!profile.hasChanges()) {
+            Metrics.increment("writeElision.profile");
+            return;
+        }
+        profiles.put(profile.getUserId(), profile.copy());
+    }
+
+    @Override
+    public Conference loadConference(String websafeConferenceKey) {
+        Conference conference = conferences.get(websafeConferenceKey);
+        if (conference == null) {
+            conference = archived.get(websafeConferenceKey);
+        }
+        return conference == null ? null : conference.copy();
+    }
+
+    @Override
+    public int loadSeatsAvailable(String websafeConferenceKey) {
+        Conference conference = conferences.get(websafeConferenceKey);
+        return conference == null ? -1 : conference.getSeatsAvailable();
+    }
+
+    @Override
+    public List<Conference> loadConferences(List<String> websafeConferenceKeys) {
+        List<Conference> result = new ArrayList<>(0);
+        for (String websafe : websafeConferenceKeys) {
+            Conference conference = conferences.get(websafe);
+            if (conference == null) {
+                conference = archived.get(websafe);
+            }
+            if (conference != null) {
+                result.add(conference.copy());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Conference createConference(Profile defaultOrganizer, ConferenceForm conferenceForm,
+                                       String idempotencyId) {
+        if (idempotencyId == null) {
+            return create(defaultOrganizer, conferenceForm);
+        }
+        String recordKey = recordKey(defaultOrganizer.getUserId(), idempotencyId);
+        IdempotencyClaim claim = claimRecord(recordKey);
+        if (!claim.lock.isHeldByCurrentThread()) {
+            return loadConference(claim.outcome);
+        }
+        try {
+            Conference conference = create(defaultOrganizer, conferenceForm);
+            claim.complete(conference.getWebsafeKey());
+            return conference;
+        } finally {
+            releaseRecord(recordKey, claim);
+        }
+    }
+
+    private Conference create(Profile defaultOrganizer, ConferenceForm conferenceForm) {
+        profiles.putIfAbsent(defaultOrganizer.getUserId(), defaultOrganizer.copy());
+        Conference conference = new Conference(nextId.incrementAndGet(),
+                defaultOrganizer.getUserId(), conferenceForm);
+        conferences.put(conference.getWebsafeKey(), conference.copy());
+        return conference;
+    }
+
+    private static String recordKey(String userId, String idempotencyId) {
+        return userId + "/" + idempotencyId;
+    }
+
+    /**
+     * The claim of a request on an idempotency key. The request that put the claim holds its
+     * lock until the outcome is known, so a concurrent retry with the same key waits for that
+     * request alone and then replays its outcome.
+     */
+    private static final class IdempotencyClaim {
+        private final ReentrantLock lock = new ReentrantLock();
+        private String outcome;
+        private long completedAt;
+
+        private void complete(String outcome) {
+            this.outcome = outcome;
+            this.completedAt = System.currentTimeMillis();
+        }
+
+        private boolean isReplayable() {
+            return outcome != null
+                    && System.currentTimeMillis() - completedAt < IdempotencyRecord.TTL_MILLIS;
+        }
+    }
+
+    /**
+     * Claims a record key with putIfAbsent. Returns either a new claim, locked by the calling
+     * thread, for the request to run and then pass to releaseRecord(), or the unlocked claim of
+     * an earlier request that completed within IdempotencyRecord.TTL_MILLIS.
+     */
+    private IdempotencyClaim claimRecord(String recordKey) {
+        while (true) {
+            IdempotencyClaim claim = new IdempotencyClaim();
+            claim.lock.lock();
+            IdempotencyClaim existing = idempotencyRecords.putIfAbsent(recordKey, claim);
+            if (existing == null) {
+                return claim;
+            }
+            claim.lock.unlock();
+            existing.lock.lock();
+            try {
+                if (existing.isReplayable()) {
+                    return existing;
+                }
+            } finally {
+                existing.lock.unlock();
+            }
+            // The earlier request failed, or its outcome expired.
+            idempotencyRecords.remove(recordKey, existing);
+        }
+    }
+
+    /**
+     * Unlocks a claim taken by claimRecord(), dropping it if the request did not complete.
+     */
+    private void releaseRecord(String recordKey, IdempotencyClaim claim) {
+        if (claim.outcome == null) {
+            idempotencyRecords.remove(recordKey, claim);
+        }
+        claim.lock.unlock();
+    }
+
+    @Override
+    public List<Conference> queryConferences(final ConferenceQueryForm conferenceQueryForm) {
+        conferenceQueryForm.validate();
+        if (conferenceQueryForm.getRankBy() != null) {
+            Iterator<Conference> matches = Iterators.filter(conferences.values().iterator(),
+                    new Predicate<Conference>() {
+                        @Override
+                        public boolean apply(Conference conference) {
+                            return conferenceQueryForm.matches(conference);
+                        }
+                    });
+            List<Conference> result = new ArrayList<>(0);
+            for (Conference conference : Ordering.from(conferenceQueryForm.ranking())
+                    .leastOf(matches, conferenceQueryForm.topK())) {
+                result.add(conference.copy());
+            }
+            return result;
+        }
+        List<Conference> result = new ArrayList<>(0);
+        for (Conference conference : conferences.values()) {
+            if (conferenceQueryForm.matches(conference)) {
+                result.add(conference.copy());
+            }
+        }
+        Collections.sort(result, conferenceQueryForm.ordering());
+        Integer pageSize = conferenceQueryForm.getPageSize();
+        if (pageSize != null && result.size() > pageSize) {
+            return new ArrayList<>(result.subList(0, pageSize));
+        }
+        return result;
+    }
+
+    @Override
+    public int countConferences(ConferenceQueryForm conferenceQueryForm, int limit) {
+        conferenceQueryForm.validate();
+        int count = 0;
+        for (Conference conference : conferences.values()) {
+            if (count == limit) {
+                break;
+            }
+            if (conferenceQueryForm.matches(conference)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public List<Conference> getConferencesCreated(String userId) {
+        List<Conference> result = new ArrayList<>(0);
+        for (Conference conference : conferences.values()) {
+            if (userId.equals(conference.getOrganizerUserId())) {
+                result.add(conference.copy());
+            }
+        }
+        // An ancestor query returns the Conferences in key order.
+        Collections.sort(result, BY_ID);
+        return result;
+    }
+
+    @Override
+    public Dashboard loadDashboard(String userId) {
+        Profile profile = loadProfile(userId);
+        List<Conference> conferencesToAttend = profile == null ? new ArrayList<Conference>(0)
+                : loadConferences(profile.getConferenceKeysToAttend());
+        return new Dashboard(profile, getConferencesCreated(userId), conferencesToAttend);
+    }
+
+    @Override
+    public ConferencePage getConferencesChangedSince(Date since, String cursor, int limit) {
+        final Map<String, Date> changed = new HashMap<>();
+        List<Conference> ordered = new ArrayList<>(0);
+        for (Map.Entry<String, Conference> entry : conferences.entrySet()) {
+            Date lastModified = entry.getValue().getLastModified();
+            Date seatsLastModified = seatsModified.get(entry.getKey());
+            if (lastModified == null
+                    || seatsLastModified != null && seatsLastModified.after(lastModified)) {
+                lastModified = seatsLastModified;
+            }
+            if (lastModified != null && lastModified.after(since)) {
+                changed.put(entry.getKey(), lastModified);
+                ordered.add(entry.getValue());
+            }
+        }
+        Collections.sort(ordered, new Comparator<Conference>() {
+            @Override
+            public int compare(Conference left, Conference right) {
+                int result = changed.get(left.getWebsafeKey())
+                        .compareTo(changed.get(right.getWebsafeKey()));
+                return result != 0 ? result : Long.compare(left.getId(), right.getId());
+            }
+        });
+        // The cursor is the number of Conferences on the previous pages.
+        int offset;
+        try {
+            offset = cursor == null ? 0 : Integer.parseInt(cursor);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+        }
+        List<Conference> page = new ArrayList<>(0);
+        for (int i = offset; i < ordered.size() && page.size() < limit; i++) {
+            page.add(ordered.get(i).copy());
+        }
+        int next = offset + page.size();
+        return new ConferencePage(page, next < ordered.size() ? String.valueOf(next) : null);
+    }
+
+    @Override
+    public List<String> getRemovedSince(Date since) {
+        List<String> removedKeys = new ArrayList<>(0);
+        for (Map.Entry<String, Date> entry : removed.entrySet()) {
+            if (entry.getValue().after(since)) {
+                removedKeys.add(entry.getKey());
+            }
+        }
+        return removedKeys;
+    }
+
+    @Override
+    public List<Conference> getNearlySoldOut(int maxSeats, int limit) {
+        List<Conference> result = new ArrayList<>(0);
+        for (Conference conference : conferences.values()) {
+            int seats = conference.getSeatsAvailable();
+            if (seats > 0 && seats < maxSeats && result.size() < limit) {
+                result.add(conference.copy());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public ConferencePage getEndedConferences(int day, String cursor, int limit) {
+        // The cursor is the key of the last Conference scanned, in key order.
+        List<String> keys = new ArrayList<>(conferences.keySet());
+        Collections.sort(keys);
+        List<Conference> ended = new ArrayList<>(0);
+        int scanned = 0;
+        String last = null;
+        for (String key : keys) {
+            if (scanned == limit) {
+                return new ConferencePage(ended, last);
+            }
+            Conference conference = conferences.get(key);
+            if ((cursor != null && key.compareTo(cursor) <= 0) || conference == null
+                    || conference.getDays().isEmpty() || conference.getDays().get(0) >= day) {
+                continue;
+            }
+            scanned++;
+            last = key;
+            Date endDate = conference.getEndDate();
+            if (endDate != null && Conference.toDay(endDate) < day) {
+                ended.add(conference.copy());
+            }
+        }
+        return new ConferencePage(ended, null);
+    }
+
+    @Override
+    public ConferencePage indexConferenceDays(String cursor, int limit) {
+        // Conferences held in memory are never older than the days index.
+        return new ConferencePage(Collections.<Conference>emptyList(), null);
+    }
+
+    @Override
+    public void archiveConferences(List<Conference> archivedConferences, Date archivedAt) {
+        for (Conference conference : archivedConferences) {
+            String websafeConferenceKey = conference.getWebsafeKey();
+            archived.put(websafeConferenceKey, conference.copy());
+            removed.put(websafeConferenceKey, new Date(archivedAt.getTime()));
+            conferences.remove(websafeConferenceKey);
+            seatsModified.remove(websafeConferenceKey);
+        }
+    }
+
+    @Override
+    public List<Conference> queryArchivedConferences(ConferenceQueryForm conferenceQueryForm,
+                                                     int limit) {
+        List<Conference> result = new ArrayList<>(0);
+        for (Conference conference : archived.values()) {
+            if (conferenceQueryForm.matches(conference)) {
+                result.add(conference.copy());
+            }
+        }
+        Collections.sort(result, BY_END_DATE_DESCENDING);
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    @Override
+    public List<Conference> getAllConferences() {
+        List<Conference> result = new ArrayList<>(0);
+        for (Conference conference : conferences.values()) {
+            result.add(conference.copy());
+        }
+        return result;
+    }
+
+    @Override
+    public List<Profile> getAllProfiles() {
+        List<Profile> result = new ArrayList<>(0);
+        for (Profile profile : profiles.values()) {
+            result.add(profile.copy());
+        }
+        return result;
+    }
+
+    @Override
+    public Recommendation loadRecommendation(String userId) {
+        // Recommendations are never changed after they are built, so they are shared.
+        return recommendations.get(userId);
+    }
+
+    @Override
+    public void saveRecommendations(List<Recommendation> recommendations) {
+        for (Recommendation recommendation : recommendations) {
+            this.recommendations.put(recommendation.getUserId(), recommendation);
+        }
+    }
+
+    @Override
+    public SeatResult registerForConference(Profile defaultProfile, String websafeConferenceKey,
+                                            String idempotencyId) {
+        if (idempotencyId == null) {
+            return register(defaultProfile, websafeConferenceKey);
+        }
+        String recordKey = recordKey(defaultProfile.getUserId(), idempotencyId);
+        IdempotencyClaim claim = claimRecord(recordKey);
+        if (!claim.lock.isHeldByCurrentThread()) {
+            // An earlier request with the same key registered the user.
+            Conference conference = conferences.get(websafeConferenceKey);
+            return new SeatResult(Status.REGISTERED,
+                    conference == null ? -1 : conference.getSeatsAvailable());
+        }
+        try {
+            SeatResult seatResult = register(defaultProfile, websafeConferenceKey);
+            if (seatResult.getStatus() == Status.REGISTERED) {
+                claim.complete(Status.REGISTERED.name());
+            }
+            return seatResult;
+        } finally {
+            releaseRecord(recordKey, claim);
+        }
+    }
+
+    @Override
+    public int deleteIdempotencyRecordsCreatedBefore(Date before, int limit) {
+        int deleted = 0;
+        for (Map.Entry<String, IdempotencyClaim> entry : idempotencyRecords.entrySet()) {
+            if (deleted == limit) {
+                break;
+            }
+            IdempotencyClaim claim = entry.getValue();
+            // A claim still running has no outcome and is left alone.
+            if (claim.lock.tryLock()) {
+                try {
+                    if (claim.outcome != null && claim.completedAt < before.getTime()
+                            && idempotencyRecords.remove(entry.getKey(), claim)) {
+                        deleted++;
+                    }
+                } finally {
+                    claim.lock.unlock();
+                }
+            }
+        }
+        return deleted;
+    }
+
+    private SeatResult register(Profile defaultProfile, String websafeConferenceKey) {
+        String userId = defaultProfile.getUserId();
+        Profile stored = profiles.get(userId);
+        if (stored != null && stored.getConferenceKeysToAttend().contains(websafeConferenceKey)) {
+            Conference conference = conferences.get(websafeConferenceKey);
+            return conference == null ? new SeatResult(Status.NOT_FOUND, -1)
+                    : new SeatResult(Status.ALREADY_REGISTERED, conference.getSeatsAvailable());
+        }
+        // Claim the seat first, so a sold out conference never touches the Profile.
+        SeatResult booked = changeSeats(websafeConferenceKey, -1);
+        if (booked.getStatus() != Status.REGISTERED) {
+            return booked;
+        }
+        while (true) {
+            stored = profiles.get(userId);
+            Profile base = stored == null ? defaultProfile : stored;
+            if (base.getConferenceKeysToAttend().contains(websafeConferenceKey)) {
+                // A concurrent call registered the same user, so undo our seat.
+                SeatResult released = changeSeats(websafeConferenceKey, 1);
+                return new SeatResult(Status.ALREADY_REGISTERED, released.getSeatsAvailable());
+            }
+            Profile updated = base.copy();
+            updated.addToConferenceKeysToAttend(websafeConferenceKey);
+            if (stored == null ? profiles.putIfAbsent(userId, updated) == null
+                    : profiles.replace(userId, stored, updated)) {
+                return booked;
+            }
+        }
+    }
+
+    @Override
+    public SeatResult unregisterFromConference(String userId, String websafeConferenceKey) {
+        Conference conference = conferences.get(websafeConferenceKey);
+        if (conference == null) {
+            return new SeatResult(Status.NOT_FOUND, -1);
+        }
+        while (true) {
+            Profile stored = profiles.get(userId);
+            if (stored == null || !stored.getConferenceKeysToAttend().contains(websafeConferenceKey)) {
+                return new SeatResult(Status.NOT_REGISTERED,
+                        conferences.get(websafeConferenceKey).getSeatsAvailable());
+            }
+            Profile updated = stored.copy();
+            updated.unregisterFromConference(websafeConferenceKey);
+            if (profiles.replace(userId, stored, updated)) {
+                SeatResult released = changeSeats(websafeConferenceKey, 1);
+                return new SeatResult(Status.UNREGISTERED, released.getSeatsAvailable());
+            }
+        }
+    }
+
+    /**
+     * Books (negative delta) or gives back (positive delta) seats with a compare-and-set loop.
+     *
+     * @return REGISTERED or UNREGISTERED with the new seat count, or NOT_FOUND or NO_SEATS.
+     */
+    private SeatResult changeSeats(String websafeConferenceKey, int delta) {
+        while (true) {
+            Conference current = conferences.get(websafeConferenceKey);
+            if (current == null) {
+                return new SeatResult(Status.NOT_FOUND, -1);
+            }
+            if (current.getSeatsAvailable() + delta < 0) {
+                return new SeatResult(Status.NO_SEATS, current.getSeatsAvailable());
+            }
+            Conference updated = current.copy();
+            if (delta < 0) {
+                updated.bookSeats(-delta);
+            } else {
+                updated.giveBackSeats(delta);
+            }
+            if (conferences.replace(websafeConferenceKey, current, updated)) {
+                seatsModified.put(websafeConferenceKey, new Date());
+                return new SeatResult(delta < 0 ? Status.REGISTERED : Status.UNREGISTERED,
+                        updated.getSeatsAvailable());
+            }
+        }
+    }
+
+    private static String holdKey(String websafeConferenceKey, String userId) {
+        return websafeConferenceKey + "/" + userId;
+    }
+
+    @Override
+    public SeatResult holdSeat(String userId, String websafeConferenceKey, Date expiresAt) {
+        Profile profile = profiles.get(userId);
+        if (profile != null && profile.getConferenceKeysToAttend().contains(websafeConferenceKey)) {
+            Conference conference = conferences.get(websafeConferenceKey);
+            return conference == null ? new SeatResult(Status.NOT_FOUND, -1)
+                    : new SeatResult(Status.ALREADY_REGISTERED, conference.getSeatsAvailable());
+        }
+        String key = holdKey(websafeConferenceKey, userId);
+        SeatHold renewed = new SeatHold(websafeConferenceKey, userId, expiresAt);
+        SeatHold hold = holds.get(key);
+        if (hold != null) {
+            Conference conference = conferences.get(websafeConferenceKey);
+            int seats = conference == null ? -1 : conference.getSeatsAvailable();
+            if (!hold.hasExpired(new Date())) {
+                return new SeatResult(Status.HELD, seats, hold);
+            }
+            // The expired hold still has its seat, so only the expiry moves.
+            if (holds.replace(key, hold, renewed)) {
+                return new SeatResult(Status.HELD, seats, renewed);
+            }
+            return holdSeat(userId, websafeConferenceKey, expiresAt);
+        }
+        SeatResult booked = changeSeats(websafeConferenceKey, -1);
+        if (booked.getStatus() != Status.REGISTERED) {
+            return booked;
+        }
+        SeatHold raced = holds.putIfAbsent(key, renewed);
+        if (raced != null) {
+            // A concurrent call made the hold, so undo our seat.
+            SeatResult released = changeSeats(websafeConferenceKey, 1);
+            return new SeatResult(Status.HELD, released.getSeatsAvailable(), raced);
+        }
+        return new SeatResult(Status.HELD, booked.getSeatsAvailable(), renewed);
+    }
+
+    @Override
+    public SeatResult confirmHold(Profile defaultProfile, String websafeConferenceKey, Date now) {
+        String userId = defaultProfile.getUserId();
+        Conference conference = conferences.get(websafeConferenceKey);
+        if (conference == null) {
+            return new SeatResult(Status.NOT_FOUND, -1);
+        }
+        SeatHold hold = holds.remove(holdKey(websafeConferenceKey, userId));
+        if (hold == null) {
+            return new SeatResult(Status.NOT_HELD, conference.getSeatsAvailable());
+        }
+        if (hold.hasExpired(now)) {
+            SeatResult released = changeSeats(websafeConferenceKey, 1);
+            return new SeatResult(Status.NOT_HELD, released.getSeatsAvailable());
+        }
+        while (true) {
+            Profile stored = profiles.get(userId);
+            Profile base = stored == null ? defaultProfile : stored;
+            if (base.getConferenceKeysToAttend().contains(websafeConferenceKey)) {
+                SeatResult released = changeSeats(websafeConferenceKey, 1);
+                return new SeatResult(Status.ALREADY_REGISTERED, released.getSeatsAvailable());
+            }
+            Profile updated = base.copy();
+            updated.addToConferenceKeysToAttend(websafeConferenceKey);
+            if (stored == null ? profiles.putIfAbsent(userId, updated) == null
+                    : profiles.replace(userId, stored, updated)) {
+                return new SeatResult(Status.REGISTERED,
+                        conferences.get(websafeConferenceKey).getSeatsAvailable());
+            }
+        }
+    }
+
+    @Override
+    public SeatResult releaseHold(String userId, String websafeConferenceKey) {
+        SeatHold hold = holds.remove(holdKey(websafeConferenceKey, userId));
+        if (hold == null) {
+            Conference conference = conferences.get(websafeConferenceKey);
+            return new SeatResult(Status.NOT_HELD,
+                    conference == null ? -1 : conference.getSeatsAvailable());
+        }
+        SeatResult released = changeSeats(websafeConferenceKey, 1);
+        return new SeatResult(Status.RELEASED, released.getSeatsAvailable());
+    }
+
+    @Override
+    public int releaseExpiredHolds(String websafeConferenceKey, Date now, int limit) {
+        int released = 0;
+        for (Map.Entry<String, SeatHold> entry : holds.entrySet()) {
+            SeatHold hold = entry.getValue();
+            if (released < limit && hold.getWebsafeConferenceKey().equals(websafeConferenceKey)
+                    && hold.hasExpired(now) && holds.remove(entry.getKey(), hold)) {
+                released++;
+            }
+        }
+        if (released > 0) {
+            changeSeats(websafeConferenceKey, released);
+        }
+        return released;
+    }
+
+    @Override
+    public List<String> getConferencesWithExpiredHolds(Date now, int limit) {
+        Set<String> result = new LinkedHashSet<>();
+        int seen = 0;
+        for (SeatHold hold : holds.values()) {
+            if (seen < limit && hold.hasExpired(now)) {
+                result.add(hold.getWebsafeConferenceKey());
+                seen++;
+            }
+        }
+        return new ArrayList<>(result);
+    }
+}
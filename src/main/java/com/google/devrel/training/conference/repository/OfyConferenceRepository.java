@@ -0,0 +1,1296 @@
+package com.google.devrel.training.conference.repository;
+
+import static com.google.devrel.training.conference.service.OfyService.factory;
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Ordering;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.devrel.training.conference.domain.ArchivedConference;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Conference.Availability;
+import com.google.devrel.training.conference.domain.ConferenceSeats;
+import com.google.devrel.training.conference.domain.ConferenceTombstone;
+import com.google.devrel.training.conference.domain.Dashboard;
+import com.google.devrel.training.conference.domain.IdempotencyRecord;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Recommendation;
+import com.google.devrel.training.conference.domain.SeatHold;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.repository.SeatResult.Status;
+import com.google.devrel.training.conference.service.Catalog;
+import com.google.devrel.training.conference.service.ConferenceCache;
+import com.google.devrel.training.conference.service.Metrics;
+import com.google.devrel.training.conference.service.Tracing;
+import com.google.devrel.training.conference.service.Tracing.Span;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.LoadResult;
+import com.googlecode.objectify.Work;
+import com.googlecode.objectify.cmd.Query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ConferenceRepository backed by the datastore through Objectify.
+ *
+ * Independent loads are started together as one batch get, and later loads of the same keys
+ * are served by the request-scoped session cache that ObjectifyFilter installs. Queries run
+ * keys-only and the Conferences are loaded through the cache tiers, see hydrate().
+ *
+ * Seat counts live in ConferenceSeats, so that registrations do not rewrite the Conference
+ * and its index rows. Every Conference this repository returns carries the count from there.
+ *
+ * Every datastore call is wrapped in a Tracing span, which costs nothing unless the request
+ * is sampled for tracing.
+ */
+public class OfyConferenceRepository implements ConferenceRepository {
+
+    /**
+     * Batch size for streaming all matches of a ranked query.
+     */
+    private static final int TOP_K_CHUNK = 200;
+
+    /**
+     * Batch size for reading a whole kind.
+     */
+    private static final int BATCH_CHUNK = 500;
+
+    private static final int MAX_PUT = 500;
+
+    /**
+     * The most archived Conferences a history search looks at.
+     */
+    private static final int MAX_ARCHIVE_SCAN = 5000;
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+
+    /*
+     * Estimated datastore write ops of the seat change of a registration, from the billing
+     * model: updating an entity costs 1 op, plus 4 for every indexed property that changes.
+     * With seatsAvailable indexed, every registration changed seatsAvailable and lastModified.
+     * Now it writes ConferenceSeats, whose only index is its lastModified, and the Conference
+     * only when its availability, and so lastModified, changes. The Profile write is the same
+     * either way.
+     */
+    private static final int SEAT_WRITE_OPS_BEFORE_SPLIT = 1 + 4 * 2;
+
+    private static final int SEATS_WRITE_OPS = 1 + 4;
+
+    /**
+     * Marks the sync cursors of the second phase, over the seat counts.
+     */
+    private static final String SEATS_CURSOR = "seats:";
+
+    private static final int BUCKET_WRITE_OPS = 1 + 4 * 2;
+
+    @Override
+    public Profile loadProfile(String userId) {
+        try (Span span = Tracing.span("load", "Profile")) {
+            return ofy().load().key(Key.create(Profile.class, userId)).now();
+        }
+    }
+
+    @Override
+    public void saveProfile(Profile profile) {
+        if (!profile.hasChanges()) {
+            Metrics.increment("writeElision.profile");
+            return;
+        }
+        try (Span span = Tracing.span("save", "Profile")) {
+            ofy().save().entity(profile).now();
+        }
+    }
+
+    /**
+     * Saves the seat count, the IdempotencyRecord if there is one, and whichever of the
+     * Profile and the Conference changed since they were loaded. Each skipped write is counted
+     * in the metrics.
+     *
+     * @param record the IdempotencyRecord of the request, or null.
+     * @return whether the Conference was written.
+     */
+    private boolean saveChanged(Profile profile, Conference conference, ConferenceSeats seats,
+                                IdempotencyRecord record) {
+        List<Object> changed = new ArrayList<>(4);
+        if (profile.hasChanges()) {
+            changed.add(profile);
+        } else {
+            Metrics.increment("writeElision.profile");
+        }
+        if (record != null) {
+            changed.add(record);
+        }
+        return saveSeats(conference, seats, changed);
+    }
+
+    /**
+     * Saves the seat count and the given entities in one put, with the Conference if it
+     * changed.
+     *
+     * @return whether the Conference was written.
+     */
+    private boolean saveSeats(Conference conference, ConferenceSeats seats,
+                              List<Object> entities) {
+        List<Object> changed = new ArrayList<>(entities);
+        changed.add(seats);
+        boolean conferenceChanged = conference.hasChanges();
+        if (conferenceChanged) {
+            changed.add(conference);
+        } else {
+            Metrics.increment("writeElision.conference");
+        }
+        ofy().save().entities(changed).now();
+        return conferenceChanged;
+    }
+
+    @Override
+    public Conference loadConference(String websafeConferenceKey) {
+        Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        List<Conference> conferences = hydrate(Collections.singletonList(conferenceKey));
+        return conferences.isEmpty() ? null : conferences.get(0);
+    }
+
+    /**
+     * Reads through a new Objectify session, so that a long poll refreshing several times sees
+     * the latest count rather than the one its request session cached, and past the
+     * ConferenceCache and the Catalog, whose copies may be older than the count.
+     */
+    @Override
+    public int loadSeatsAvailable(String websafeConferenceKey) {
+        Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        Key<ConferenceSeats> seatsKey = ConferenceSeats.key(conferenceKey);
+        List<Key<?>> keys = new ArrayList<>(2);
+        keys.add(conferenceKey);
+        keys.add(seatsKey);
+        Map<Key<Object>, Object> loaded;
+        try (Span span = Tracing.span("load", "Conference, ConferenceSeats").detail("seats")) {
+            loaded = factory().begin().load().values(keys);
+        }
+        Conference conference = (Conference) loaded.get(conferenceKey);
+        if (conference == null) {
+            return -1;
+        }
+        ConferenceSeats seats = (ConferenceSeats) loaded.get(seatsKey);
+        return seats == null ? conference.getSeatsAvailable() : seats.getSeatsAvailable();
+    }
+
+    @Override
+    public List<Conference> loadConferences(List<String> websafeConferenceKeys) {
+        List<Key<Conference>> conferenceKeys = new ArrayList<>(0);
+        for (String websafe : websafeConferenceKeys) {
+            conferenceKeys.add(Key.<Conference>create(websafe));
+        }
+        return hydrate(conferenceKeys);
+    }
+
+    /**
+     * Loads the Conferences with the given keys, in the same order, skipping missing ones.
+     *
+     * Hot Conferences come from the in-process ConferenceCache, then from the Catalog view
+     * when an instance has one. The misses, the seat counts of the misses and of the Catalog
+     * hits, and the organizers' Profiles are fetched in one batch get, which Objectify serves
+     * from memcache where it can (all three kinds are @Cache) and from the datastore for the
+     * rest. The Profiles then serve the organizer display names from the session cache during
+     * serialization.
+     */
+    private List<Conference> hydrate(List<Key<Conference>> conferenceKeys) {
+        return inOrder(conferenceKeys, hydrateAll(conferenceKeys));
+    }
+
+    /**
+     * Loads the Conferences with the given keys as hydrate() does.
+     *
+     * @return the Conferences found, by key.
+     */
+    private Map<Key<Conference>, Conference> hydrateAll(
+            Collection<Key<Conference>> conferenceKeys) {
+        Map<Key<Conference>, Conference> result = new HashMap<>();
+        List<Key<Conference>> misses = new ArrayList<>(0);
+        // The ConferenceCache holds Conferences that already carry their seat count.
+        List<Conference> catalogHits = new ArrayList<>(0);
+        List<Key<ConferenceSeats>> seatKeys = new ArrayList<>(0);
+        Set<Key<?>> batch = new LinkedHashSet<>();
+        for (Key<Conference> key : conferenceKeys) {
+            Conference conference = ConferenceCache.get(key.getString());
+            if (conference == null) {
+                conference = Catalog.get(key.getString());
+                if (conference != null) {
+                    catalogHits.add(conference);
+                }
+                seatKeys.add(ConferenceSeats.key(key));
+            }
+            if (conference == null) {
+                misses.add(key);
+                batch.add(key);
+            } else {
+                result.put(key, conference);
+            }
+            batch.add(key.getParent());
+        }
+        batch.addAll(seatKeys);
+        Map<Key<Conference>, Conference> loaded;
+        Map<Key<ConferenceSeats>, ConferenceSeats> seats;
+        try (Span span = Tracing.span("load", "Conference").detail(batch.size() + " keys")) {
+            ofy().load().values(batch);
+            loaded = ofy().load().keys(misses);
+            seats = ofy().load().keys(seatKeys);
+        }
+        overlaySeats(catalogHits, seats);
+        overlaySeats(loaded.values(), seats);
+        for (Conference conference : loaded.values()) {
+            ConferenceCache.putIfHot(conference);
+        }
+        result.putAll(loaded);
+        if (loaded.size() < misses.size()) {
+            // Only keys of Conferences that have been archived, or never existed, get here.
+            result.putAll(loadArchived(misses, loaded.keySet()));
+        }
+        return result;
+    }
+
+    private Map<Key<Conference>, Conference> loadArchived(List<Key<Conference>> conferenceKeys,
+                                                          Set<Key<Conference>> found) {
+        Map<String, Key<Conference>> missing = new HashMap<>();
+        for (Key<Conference> key : conferenceKeys) {
+            if (!found.contains(key)) {
+                missing.put(key.getString(), key);
+            }
+        }
+        Map<String, ArchivedConference> archived;
+        try (Span span = Tracing.span("load", "ArchivedConference")) {
+            archived = ofy().load().type(ArchivedConference.class).ids(missing.keySet());
+        }
+        Map<Key<Conference>, Conference> result = new HashMap<>();
+        for (Map.Entry<String, ArchivedConference> entry : archived.entrySet()) {
+            result.put(missing.get(entry.getKey()), entry.getValue().toConference());
+        }
+        Metrics.add("archive.loaded", result.size());
+        return result;
+    }
+
+    /**
+     * Puts the authoritative seat counts on Conferences loaded by a query or a plain get, one
+     * batch get per BATCH_CHUNK Conferences.
+     *
+     * @return the same Conferences.
+     */
+    private static <C extends Collection<Conference>> C withSeats(C conferences) {
+        for (List<Conference> chunk : Iterables.partition(conferences, BATCH_CHUNK)) {
+            List<Key<ConferenceSeats>> seatKeys = new ArrayList<>(chunk.size());
+            for (Conference conference : chunk) {
+                seatKeys.add(ConferenceSeats.key(conference));
+            }
+            Map<Key<ConferenceSeats>, ConferenceSeats> seats;
+            try (Span span = Tracing.span("load", "ConferenceSeats")
+                    .detail(seatKeys.size() + " keys")) {
+                seats = ofy().load().keys(seatKeys);
+            }
+            overlaySeats(chunk, seats);
+        }
+        return conferences;
+    }
+
+    /**
+     * Streams Conferences with their authoritative seat counts, loaded chunk by chunk.
+     */
+    private static Iterator<Conference> withSeats(Iterator<Conference> conferences, int chunk) {
+        return Iterators.concat(Iterators.transform(Iterators.partition(conferences, chunk),
+                new Function<List<Conference>, Iterator<Conference>>() {
+                    @Override
+                    public Iterator<Conference> apply(List<Conference> conferences) {
+                        return withSeats(conferences).iterator();
+                    }
+                }));
+    }
+
+    /**
+     * Conferences stored before ConferenceSeats existed have no seat count there yet, and
+     * keep their own.
+     */
+    private static void overlaySeats(Collection<Conference> conferences,
+                                     Map<Key<ConferenceSeats>, ConferenceSeats> seats) {
+        for (Conference conference : conferences) {
+            ConferenceSeats conferenceSeats = seats.get(ConferenceSeats.key(conference));
+            if (conferenceSeats != null) {
+                conferenceSeats.copyTo(conference);
+            }
+        }
+    }
+
+    /**
+     * Returns the Conferences with the given keys in the order of the keys, skipping missing.
+     */
+    private static List<Conference> inOrder(List<Key<Conference>> conferenceKeys,
+                                            Map<Key<Conference>, Conference> conferences) {
+        List<Conference> result = new ArrayList<>(0);
+        for (Key<Conference> key : conferenceKeys) {
+            Conference conference = conferences.get(key);
+            if (conference != null) {
+                result.add(conference);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The Profile, the Conference, its seat count and the IdempotencyRecord are all in the
+     * organizer's entity group, so one transaction writes them together, and a retry whose
+     * record is found creates nothing.
+     */
+    @Override
+    public Conference createConference(final Profile defaultOrganizer,
+                                       final ConferenceForm conferenceForm,
+                                       final String idempotencyId) {
+        final String userId = defaultOrganizer.getUserId();
+        final Key<Profile> profileKey = Key.create(Profile.class, userId);
+        final Key<Conference> conferenceKey = factory().allocateId(profileKey, Conference.class);
+        final AtomicReference<String> replayed = new AtomicReference<>();
+        Conference conference;
+        try (Span span = Tracing.span("transaction", "createConference")) {
+            conference = ofy().transact(new Work<Conference>() {
+                public Conference run() {
+                    replayed.set(null);
+                    List<Key<?>> keys = new ArrayList<>(2);
+                    keys.add(profileKey);
+                    Key<IdempotencyRecord> recordKey = null;
+                    if (idempotencyId != null) {
+                        recordKey = IdempotencyRecord.key(userId, idempotencyId);
+                        keys.add(recordKey);
+                    }
+                    // Fetch the organizer's Profile and the record in one batch get.
+                    Map<Key<Object>, Object> loaded = ofy().load().values(keys);
+                    IdempotencyRecord record = recordKey == null ? null
+                            : (IdempotencyRecord) loaded.get(recordKey);
+                    if (record != null && !record.hasExpired(new Date())) {
+                        replayed.set(record.getOutcome());
+                        return null;
+                    }
+                    Profile profile = (Profile) loaded.get(profileKey);
+                    if (profile == null) {
+                        profile = defaultOrganizer;
+                    }
+                    // The id was just allocated, so there is no stored Conference to update.
+                    Conference created = new Conference(conferenceKey.getId(),
+                            profile.getUserId(), conferenceForm);
+                    // An existing organizer Profile is unchanged, so only the Conference, its
+                    // seat count and the record are written.
+                    saveChanged(profile, created, new ConferenceSeats(created),
+                            recordKey == null ? null : new IdempotencyRecord(userId,
+                                    idempotencyId, created.getWebsafeKey()));
+                    return created;
+                }
+            });
+        }
+        if (replayed.get() != null) {
+            Metrics.increment("idempotency.recordReplayed");
+            return loadConference(replayed.get());
+        }
+        invalidate(conference.getWebsafeKey());
+        return conference;
+    }
+
+    @Override
+    public List<Conference> queryConferences(ConferenceQueryForm conferenceQueryForm) {
+        if (conferenceQueryForm.getRankBy() != null && !conferenceQueryForm.ranksInIndex()) {
+            return queryTopK(conferenceQueryForm);
+        }
+        if (conferenceQueryForm.hasBranches()) {
+            return queryBranches(conferenceQueryForm);
+        }
+        // A keys-only query costs a small op per match instead of an entity read.
+        List<Key<Conference>> conferenceKeys;
+        try (Span span = Tracing.span("query", "Conference").detail("keys only")) {
+            conferenceKeys = conferenceQueryForm.getQuery().keys().list();
+        }
+        return hydrate(conferenceKeys);
+    }
+
+    /**
+     * Runs a query with IN or OR filters as one sub-query per branch and merges the results,
+     * up to the page size.
+     */
+    private List<Conference> queryBranches(ConferenceQueryForm conferenceQueryForm) {
+        Integer pageSize = conferenceQueryForm.getPageSize();
+        int limit = pageSize == null ? Integer.MAX_VALUE : pageSize;
+        List<Conference> result = new ArrayList<>(0);
+        try (Span span = Tracing.span("query", "Conference").detail("branches")) {
+            Iterator<Conference> merged = mergeBranches(conferenceQueryForm, pageSize);
+            while (result.size() < limit && merged.hasNext()) {
+                result.add(merged.next());
+            }
+        }
+        withSeats(result);
+        prefetchOrganizers(result);
+        return result;
+    }
+
+    /**
+     * Starts one sub-query per branch of the query and returns the merge of their results.
+     *
+     * All sub-queries are started before any result is read, so they run in parallel. Each
+     * returns its Conferences in the order of the whole query, so a streaming k-way merge
+     * yields them in that order too, reading a branch only as far as the merge gets. The
+     * sub-queries load entities rather than keys, because the merge needs the sort values.
+     *
+     * @param limit the most Conferences read from each branch, or null to read them all.
+     */
+    private Iterator<Conference> mergeBranches(ConferenceQueryForm conferenceQueryForm,
+                                               Integer limit) {
+        List<Iterator<Conference>> iterators = new ArrayList<>(0);
+        for (ConferenceQueryForm branch : conferenceQueryForm.branches()) {
+            Query<Conference> query = branch.getQuery();
+            if (limit != null) {
+                query = query.limit(limit).chunk(Math.max(1, limit));
+            }
+            iterators.add(query.iterator());
+        }
+        final Iterator<Conference> merged = Iterators.mergeSorted(iterators,
+                conferenceQueryForm.ordering());
+        return new AbstractIterator<Conference>() {
+            // A Conference matching several branches comes out of each of them.
+            private final Set<Key<Conference>> seen = new HashSet<>();
+
+            @Override
+            protected Conference computeNext() {
+                while (merged.hasNext()) {
+                    Conference conference = merged.next();
+                    if (seen.add(Key.<Conference>create(conference.getWebsafeKey()))) {
+                        return conference;
+                    }
+                }
+                return endOfData();
+            }
+        };
+    }
+
+    /**
+     * Returns the top ranked Conferences of a query the datastore cannot rank by itself.
+     *
+     * The matches are streamed in chunks and only the best ones are kept as they go by, so
+     * memory is bounded by the number of results rather than the number of matches. Each chunk
+     * gets its seat counts before it is ranked.
+     */
+    private List<Conference> queryTopK(ConferenceQueryForm conferenceQueryForm) {
+        List<Conference> top;
+        try (Span span = Tracing.span("query", "Conference")
+                .detail("top " + conferenceQueryForm.topK())) {
+            Iterator<Conference> matches = withSeats(conferenceQueryForm.hasBranches()
+                    ? mergeBranches(conferenceQueryForm, null)
+                    : conferenceQueryForm.getQuery().chunk(TOP_K_CHUNK).iterator(), TOP_K_CHUNK);
+            // Guava selects the least k elements with a buffer of 2k, in linear time.
+            top = Ordering.from(conferenceQueryForm.ranking())
+                    .leastOf(matches, conferenceQueryForm.topK());
+        }
+        prefetchOrganizers(top);
+        return top;
+    }
+
+    /**
+     * Fetches the organizers of the given Conferences in one batch get, so their display
+     * names are served from the session cache.
+     */
+    private void prefetchOrganizers(List<Conference> conferences) {
+        Set<Key<Profile>> organizerKeys = new LinkedHashSet<>();
+        for (Conference conference : conferences) {
+            organizerKeys.add(Key.create(Profile.class, conference.getOrganizerUserId()));
+        }
+        ofy().load().keys(organizerKeys);
+    }
+
+    @Override
+    public int countConferences(ConferenceQueryForm conferenceQueryForm, int limit) {
+        if (conferenceQueryForm.hasBranches()) {
+            return countBranches(conferenceQueryForm, limit);
+        }
+        // Objectify counts with a keys-only query, reading no entities.
+        try (Span span = Tracing.span("query", "Conference").detail("count")) {
+            return conferenceQueryForm.getQuery().limit(limit).count();
+        }
+    }
+
+    /**
+     * Counts the distinct keys returned by keys-only sub-queries for every branch, read one
+     * branch after the other until limit keys are found. Each sub-query only runs once the
+     * branches before it are read, so a count that reaches limit early skips the rest.
+     */
+    private int countBranches(ConferenceQueryForm conferenceQueryForm, final int limit) {
+        Set<Key<Conference>> seen = new HashSet<>();
+        try (Span span = Tracing.span("query", "Conference").detail("count branches")) {
+            Iterator<Key<Conference>> keys = Iterators.concat(Iterators.transform(
+                    conferenceQueryForm.branches().iterator(),
+                    new Function<ConferenceQueryForm, Iterator<Key<Conference>>>() {
+                        @Override
+                        public Iterator<Key<Conference>> apply(ConferenceQueryForm branch) {
+                            return branch.getQuery().limit(limit).keys().iterator();
+                        }
+                    }));
+            while (seen.size() < limit && keys.hasNext()) {
+                seen.add(keys.next());
+            }
+        }
+        return seen.size();
+    }
+
+    @Override
+    public List<Conference> getConferencesCreated(String userId) {
+        // The ancestor query only needs the Profile key, not the Profile itself.
+        Key<Profile> profileKey = Key.create(Profile.class, userId);
+        List<Key<Conference>> conferenceKeys;
+        try (Span span = Tracing.span("query", "Conference").detail("ancestor, keys only")) {
+            conferenceKeys = ofy().load().type(Conference.class).ancestor(profileKey).keys().list();
+        }
+        return hydrate(conferenceKeys);
+    }
+
+    @Override
+    public Dashboard loadDashboard(String userId) {
+        Key<Profile> profileKey = Key.create(Profile.class, userId);
+        LoadResult<Profile> profileResult;
+        List<Key<Conference>> createdKeys;
+        try (Span span = Tracing.span("query", "Conference").detail("dashboard")) {
+            // Both start right away: the Profile get and the ancestor query run concurrently.
+            profileResult = ofy().load().key(profileKey);
+            createdKeys = ofy().load().type(Conference.class).ancestor(profileKey).keys().list();
+            // Waits for the query, while the Profile get has been running alongside.
+            createdKeys.size();
+        }
+        Profile profile = profileResult.now();
+        List<Key<Conference>> attendingKeys = new ArrayList<>(0);
+        if (profile != null) {
+            for (String websafe : profile.getConferenceKeysToAttend()) {
+                attendingKeys.add(Key.<Conference>create(websafe));
+            }
+        }
+        // One batch get for both lists and their organizers.
+        Set<Key<Conference>> allKeys = new LinkedHashSet<>(createdKeys);
+        allKeys.addAll(attendingKeys);
+        Map<Key<Conference>, Conference> conferences = hydrateAll(allKeys);
+        return new Dashboard(profile, inOrder(createdKeys, conferences),
+                inOrder(attendingKeys, conferences));
+    }
+
+    /**
+     * Pages through the changed Conferences first, then through the changed seat counts,
+     * whose Conferences are loaded with hydrate() unless the first phase returned them with
+     * that count already. The cursors of the second phase start with SEATS_CURSOR.
+     */
+    @Override
+    public ConferencePage getConferencesChangedSince(Date since, String cursor, int limit) {
+        List<Conference> conferences = new ArrayList<>(0);
+        String seatsCursor = null;
+        if (cursor != null && cursor.startsWith(SEATS_CURSOR)) {
+            seatsCursor = cursor.substring(SEATS_CURSOR.length());
+        } else {
+            // Loads entities rather than keys: a cached copy may predate the change being synced.
+            Query<Conference> query = ofy().load().type(Conference.class)
+                    .filter("lastModified >", since)
+                    .order("lastModified")
+                    .limit(limit);
+            if (cursor != null) {
+                query = query.startAt(Cursor.fromWebSafeString(cursor));
+            }
+            try (Span span = Tracing.span("query", "Conference").detail("changed since")) {
+                QueryResultIterator<Conference> iterator = query.iterator();
+                while (iterator.hasNext()) {
+                    conferences.add(iterator.next());
+                }
+                if (conferences.size() == limit) {
+                    withSeats(conferences);
+                    prefetchOrganizers(conferences);
+                    return new ConferencePage(conferences,
+                            iterator.getCursor().toWebSafeString());
+                }
+            }
+            withSeats(conferences);
+        }
+        // The seat changes fill the rest of the page.
+        Query<ConferenceSeats> query = ofy().load().type(ConferenceSeats.class)
+                .filter("lastModified >", since)
+                .order("lastModified")
+                .limit(limit - conferences.size());
+        if (seatsCursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(seatsCursor));
+        }
+        Map<Key<Conference>, Date> seatChanges = new LinkedHashMap<>();
+        String next = null;
+        try (Span span = Tracing.span("query", "ConferenceSeats").detail("changed since")) {
+            QueryResultIterator<ConferenceSeats> iterator = query.iterator();
+            while (iterator.hasNext()) {
+                ConferenceSeats seats = iterator.next();
+                seatChanges.put(seats.getConferenceKey(), seats.getLastModified());
+            }
+            if (seatChanges.size() == limit - conferences.size()) {
+                next = SEATS_CURSOR + iterator.getCursor().toWebSafeString();
+            }
+        }
+        for (Conference conference : hydrate(new ArrayList<>(seatChanges.keySet()))) {
+            // A Conference changed with or after its seats was returned by the first phase.
+            Date lastModified = conference.getLastModified();
+            if (lastModified == null || lastModified.before(
+                    seatChanges.get(Key.<Conference>create(conference.getWebsafeKey())))) {
+                conferences.add(conference);
+            }
+        }
+        prefetchOrganizers(conferences);
+        return new ConferencePage(conferences, next);
+    }
+
+    @Override
+    public List<String> getRemovedSince(Date since) {
+        List<String> removedKeys = new ArrayList<>(0);
+        try (Span span = Tracing.span("query", "ConferenceTombstone")) {
+            for (ConferenceTombstone tombstone : ofy().load().type(ConferenceTombstone.class)
+                    .filter("removedAt >", since)) {
+                removedKeys.add(tombstone.getWebsafeConferenceKey());
+            }
+        }
+        return removedKeys;
+    }
+
+    @Override
+    public List<Conference> getNearlySoldOut(int maxSeats, int limit) {
+        Preconditions.checkArgument(maxSeats <= Availability.FEW_SEATS,
+                "Only counts below %s seats are in the LIMITED bucket", Availability.FEW_SEATS);
+        // seatsAvailable is not indexed: the bucket narrows the scan, the counts finish it.
+        List<Conference> result = new ArrayList<>(0);
+        try (Span span = Tracing.span("query", "Conference").detail("nearly sold out")) {
+            Iterator<Conference> limited = withSeats(ofy().load().type(Conference.class)
+                    .filter("availability", Availability.LIMITED.name())
+                    .chunk(TOP_K_CHUNK)
+                    .iterator(), TOP_K_CHUNK);
+            while (result.size() < limit && limited.hasNext()) {
+                Conference conference = limited.next();
+                if (conference.getSeatsAvailable() > 0
+                        && conference.getSeatsAvailable() < maxSeats) {
+                    result.add(conference);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public ConferencePage getEndedConferences(int day, String cursor, int limit) {
+        // A Conference that started before the day has a day before it in the days index.
+        Query<Conference> query = ofy().load().type(Conference.class)
+                .filter("days <", day)
+                .limit(limit);
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+        List<Key<Conference>> keys = new ArrayList<>(0);
+        String next = null;
+        try (Span span = Tracing.span("query", "Conference").detail("ended")) {
+            QueryResultIterator<Key<Conference>> iterator = query.keys().iterator();
+            while (iterator.hasNext()) {
+                keys.add(iterator.next());
+            }
+            if (keys.size() == limit) {
+                next = iterator.getCursor().toWebSafeString();
+            }
+        }
+        List<Conference> ended = new ArrayList<>(0);
+        Collection<Conference> conferences;
+        try (Span span = Tracing.span("load", "Conference").detail(keys.size() + " keys")) {
+            conferences = ofy().load().keys(keys).values();
+        }
+        for (Conference conference : conferences) {
+            Date endDate = conference.getEndDate();
+            if (endDate != null && Conference.toDay(endDate) < day) {
+                ended.add(conference);
+            }
+        }
+        return new ConferencePage(withSeats(ended), next);
+    }
+
+    @Override
+    public ConferencePage indexConferenceDays(String cursor, int limit) {
+        Query<Conference> query = ofy().load().type(Conference.class).limit(limit);
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+        List<Key<Conference>> keys = new ArrayList<>(0);
+        String next = null;
+        try (Span span = Tracing.span("query", "Conference").detail("keys only")) {
+            QueryResultIterator<Key<Conference>> iterator = query.keys().iterator();
+            while (iterator.hasNext()) {
+                keys.add(iterator.next());
+            }
+            if (keys.size() == limit) {
+                next = iterator.getCursor().toWebSafeString();
+            }
+        }
+        Collection<Conference> conferences;
+        try (Span span = Tracing.span("load", "Conference").detail(keys.size() + " keys")) {
+            conferences = ofy().load().keys(keys).values();
+        }
+        List<Conference> indexed = new ArrayList<>(0);
+        for (Conference conference : conferences) {
+            if (conference.isDaysIndexMissing() && indexDays(conference.getWebsafeKey())) {
+                indexed.add(conference);
+                invalidate(conference.getWebsafeKey());
+            }
+        }
+        return new ConferencePage(indexed, next);
+    }
+
+    /**
+     * Saves a Conference again in a transaction, so the @OnSave hook fills its days index
+     * without overwriting a change made since it was read.
+     */
+    private boolean indexDays(final String websafeConferenceKey) {
+        try (Span span = Tracing.span("transaction", "indexDays")) {
+            return ofy().transact(new Work<Boolean>() {
+                public Boolean run() {
+                    Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+                    Conference conference = ofy().load().key(conferenceKey).now();
+                    if (conference == null || !conference.isDaysIndexMissing()) {
+                        return false;
+                    }
+                    ofy().save().entity(conference).now();
+                    return true;
+                }
+            });
+        }
+    }
+
+    @Override
+    public void archiveConferences(List<Conference> conferences, Date archivedAt) {
+        List<Object> entities = new ArrayList<>(0);
+        List<Key<?>> keys = new ArrayList<>(0);
+        for (Conference conference : conferences) {
+            entities.add(new ArchivedConference(conference, archivedAt));
+            entities.add(new ConferenceTombstone(conference.getWebsafeKey(), archivedAt));
+            keys.add(Key.<Conference>create(conference.getWebsafeKey()));
+            keys.add(ConferenceSeats.key(conference));
+        }
+        // The archive is written first, so a run that dies in between only repeats the move.
+        try (Span span = Tracing.span("save", "ArchivedConference, ConferenceTombstone")) {
+            ofy().save().entities(entities).now();
+        }
+        try (Span span = Tracing.span("delete", "Conference, ConferenceSeats")) {
+            ofy().delete().keys(keys).now();
+        }
+        for (Conference conference : conferences) {
+            invalidate(conference.getWebsafeKey());
+        }
+    }
+
+    @Override
+    public List<Conference> queryArchivedConferences(ConferenceQueryForm conferenceQueryForm,
+                                                     int limit) {
+        Query<ArchivedConference> query = ofy().load().type(ArchivedConference.class)
+                .order("-endDate");
+        Date fromDate = conferenceQueryForm.getFromDate();
+        if (fromDate != null) {
+            // The filters match whole days, so the end date bound is a day early.
+            query = query.filter("endDate >=", new Date(fromDate.getTime() - DAY_MILLIS));
+        }
+        List<Conference> result = new ArrayList<>(0);
+        try (Span span = Tracing.span("query", "ArchivedConference")) {
+            for (ArchivedConference archived : query.limit(MAX_ARCHIVE_SCAN)
+                    .chunk(TOP_K_CHUNK)) {
+                Conference conference = archived.toConference();
+                if (conferenceQueryForm.matches(conference)) {
+                    result.add(conference);
+                    if (result.size() == limit) {
+                        break;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<Conference> getAllConferences() {
+        try (Span span = Tracing.span("query", "Conference").detail("all")) {
+            return withSeats(ofy().load().type(Conference.class).chunk(BATCH_CHUNK).list());
+        }
+    }
+
+    @Override
+    public List<Profile> getAllProfiles() {
+        try (Span span = Tracing.span("query", "Profile").detail("all")) {
+            return ofy().load().type(Profile.class).chunk(BATCH_CHUNK).list();
+        }
+    }
+
+    @Override
+    public Recommendation loadRecommendation(String userId) {
+        try (Span span = Tracing.span("load", "Recommendation")) {
+            return ofy().load().key(Key.create(Recommendation.class, userId)).now();
+        }
+    }
+
+    @Override
+    public void saveRecommendations(List<Recommendation> recommendations) {
+        try (Span span = Tracing.span("save", "Recommendation")) {
+            // A batch put takes at most MAX_PUT entities.
+            for (int from = 0; from < recommendations.size(); from += MAX_PUT) {
+                ofy().save().entities(recommendations.subList(from,
+                        Math.min(recommendations.size(), from + MAX_PUT))).now();
+            }
+        }
+    }
+
+    /**
+     * Drops the in-process copies of a Conference after it changed.
+     */
+    private void invalidate(String websafeConferenceKey) {
+        ConferenceCache.invalidate(websafeConferenceKey);
+        Catalog.invalidate(websafeConferenceKey);
+    }
+
+    /**
+     * Drops the in-process copies of a Conference after a registration. The Catalog view gets
+     * its seat counts from ConferenceSeats, so it only needs to drop the Conference when the
+     * Conference itself was written.
+     */
+    private void invalidateSeats(String websafeConferenceKey, boolean conferenceWritten) {
+        if (conferenceWritten) {
+            invalidate(websafeConferenceKey);
+        } else {
+            ConferenceCache.invalidate(websafeConferenceKey);
+        }
+    }
+
+    /**
+     * Loads the seat count of a Conference in a transaction and puts it on the Conference.
+     * A Conference stored before ConferenceSeats existed gets one from its own count.
+     */
+    private static ConferenceSeats loadSeats(Conference conference,
+                                             Key<ConferenceSeats> seatsKey) {
+        ConferenceSeats seats = ofy().load().key(seatsKey).now();
+        if (seats == null) {
+            return new ConferenceSeats(conference);
+        }
+        seats.copyTo(conference);
+        return seats;
+    }
+
+    /**
+     * Counts the estimated write ops of a committed seat change, next to what it cost while
+     * seatsAvailable was indexed.
+     */
+    private static void countSeatWrite(boolean conferenceWritten) {
+        Metrics.add("seats.writeOps",
+                SEATS_WRITE_OPS + (conferenceWritten ? BUCKET_WRITE_OPS : 0));
+        Metrics.add("seats.writeOpsBeforeSplit", SEAT_WRITE_OPS_BEFORE_SPLIT);
+        if (conferenceWritten) {
+            Metrics.increment("seats.bucketChanged");
+        }
+    }
+
+    @Override
+    public SeatResult registerForConference(final Profile defaultProfile,
+                                            final String websafeConferenceKey,
+                                            final String idempotencyId) {
+        // Spans the attempts and the commits, which happen outside the Work.
+        SeatResult seatResult;
+        final AtomicBoolean conferenceWritten = new AtomicBoolean();
+        final AtomicBoolean replayed = new AtomicBoolean();
+        try (Span span = Tracing.span("transaction", "registerForConference")) {
+            seatResult = ofy().transact(new Work<SeatResult>() {
+                private int attempt;
+
+                public SeatResult run() {
+                    conferenceWritten.set(false);
+                    replayed.set(false);
+                    // Objectify runs the Work again when the commit hits contention.
+                    try (Span attemptSpan = Tracing.span("attempt", "registerForConference")
+                            .detail(++attempt)) {
+                        String userId = defaultProfile.getUserId();
+                        Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+                        Key<ConferenceSeats> seatsKey = ConferenceSeats.key(conferenceKey);
+                        Key<Profile> profileKey = Key.create(Profile.class, userId);
+                        List<Key<?>> keys = new ArrayList<>(4);
+                        keys.add(conferenceKey);
+                        keys.add(seatsKey);
+                        keys.add(profileKey);
+                        Key<IdempotencyRecord> recordKey = null;
+                        if (idempotencyId != null) {
+                            recordKey = IdempotencyRecord.key(userId, idempotencyId);
+                            keys.add(recordKey);
+                        }
+                        // Fetch the Conference, its seats, the user's Profile and the record in
+                        // one batch get.
+                        ofy().load().values(keys);
+                        Conference conference = ofy().load().key(conferenceKey).now();
+                        // 404 when there is no Conference with the given conferenceId.
+                        if (conference == null) {
+                            return new SeatResult(Status.NOT_FOUND, -1);
+                        }
+                        ConferenceSeats seats = loadSeats(conference, seatsKey);
+                        IdempotencyRecord record = recordKey == null ? null
+                                : ofy().load().key(recordKey).now();
+                        if (record != null && !record.hasExpired(new Date())) {
+                            // An earlier request with the same key registered the user.
+                            replayed.set(true);
+                            return new SeatResult(Status.REGISTERED,
+                                    conference.getSeatsAvailable());
+                        }
+                        // Served from the session cache filled by the batch get above.
+                        Profile profile = ofy().load().key(profileKey).now();
+                        if (profile == null) {
+                            profile = defaultProfile;
+                        }
+                        // Has the user already registered to attend this conference?
+                        if (profile.getConferenceKeysToAttend().contains(websafeConferenceKey)) {
+                            return new SeatResult(Status.ALREADY_REGISTERED,
+                                    conference.getSeatsAvailable());
+                        } else if (conference.getSeatsAvailable() <= 0) {
+                            return new SeatResult(Status.NO_SEATS,
+                                    conference.getSeatsAvailable());
+                        }
+                        // All looks good, go ahead and book the seat
+                        profile.addToConferenceKeysToAttend(websafeConferenceKey);
+                        conference.bookSeats(1);
+                        seats.copyFrom(conference);
+                        conferenceWritten.set(saveChanged(profile, conference, seats,
+                                recordKey == null ? null : new IdempotencyRecord(userId,
+                                        idempotencyId, Status.REGISTERED.name())));
+                        return new SeatResult(Status.REGISTERED,
+                                conference.getSeatsAvailable());
+                    } catch (Exception e) {
+                        return new SeatResult(Status.FAILED, -1);
+                    }
+                }
+            });
+        }
+        if (replayed.get()) {
+            Metrics.increment("idempotency.recordReplayed");
+            return seatResult;
+        }
+        invalidateSeats(websafeConferenceKey, conferenceWritten.get());
+        if (seatResult.getStatus() == Status.REGISTERED) {
+            countSeatWrite(conferenceWritten.get());
+        }
+        return seatResult;
+    }
+
+    @Override
+    public SeatResult unregisterFromConference(final String userId,
+                                               final String websafeConferenceKey) {
+        // Spans the attempts and the commits, which happen outside the Work.
+        SeatResult seatResult;
+        final AtomicBoolean conferenceWritten = new AtomicBoolean();
+        try (Span span = Tracing.span("transaction", "unregisterFromConference")) {
+            seatResult = ofy().transact(new Work<SeatResult>() {
+                private int attempt;
+
+                public SeatResult run() {
+                    conferenceWritten.set(false);
+                    // Objectify runs the Work again when the commit hits contention.
+                    try (Span attemptSpan = Tracing.span("attempt", "unregisterFromConference")
+                            .detail(++attempt)) {
+                        Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+                        Key<ConferenceSeats> seatsKey = ConferenceSeats.key(conferenceKey);
+                        Key<Profile> profileKey = Key.create(Profile.class, userId);
+                        // Fetch the Conference, its seats and the user's Profile in one batch
+                        // get.
+                        ofy().load().values(Arrays.<Key<?>>asList(
+                                conferenceKey, seatsKey, profileKey));
+                        Conference conference = ofy().load().key(conferenceKey).now();
+                        // 404 when there is no Conference with the given conferenceId.
+                        if (conference == null) {
+                            return new SeatResult(Status.NOT_FOUND, -1);
+                        }
+                        ConferenceSeats seats = loadSeats(conference, seatsKey);
+                        Profile profile = ofy().load().key(profileKey).now();
+                        // Has the user registered to attend this conference?
+                        if (profile == null || !profile.getConferenceKeysToAttend()
+                                .contains(websafeConferenceKey)) {
+                            return new SeatResult(Status.NOT_REGISTERED,
+                                    conference.getSeatsAvailable());
+                        }
+                        profile.unregisterFromConference(websafeConferenceKey);
+                        conference.giveBackSeats(1);
+                        seats.copyFrom(conference);
+                        conferenceWritten.set(saveChanged(profile, conference, seats, null));
+                        return new SeatResult(Status.UNREGISTERED,
+                                conference.getSeatsAvailable());
+                    } catch (Exception e) {
+                        return new SeatResult(Status.FAILED, -1);
+                    }
+                }
+            });
+        }
+        invalidateSeats(websafeConferenceKey, conferenceWritten.get());
+        if (seatResult.getStatus() == Status.UNREGISTERED) {
+            countSeatWrite(conferenceWritten.get());
+        }
+        return seatResult;
+    }
+
+    @Override
+    public SeatResult holdSeat(final String userId, final String websafeConferenceKey,
+                               final Date expiresAt) {
+        SeatResult seatResult;
+        final AtomicBoolean conferenceWritten = new AtomicBoolean();
+        final AtomicBoolean seatsWritten = new AtomicBoolean();
+        try (Span span = Tracing.span("transaction", "holdSeat")) {
+            seatResult = ofy().transact(new Work<SeatResult>() {
+                private int attempt;
+
+                public SeatResult run() {
+                    conferenceWritten.set(false);
+                    seatsWritten.set(false);
+                    // Objectify runs the Work again when the commit hits contention.
+                    try (Span attemptSpan = Tracing.span("attempt", "holdSeat")
+                            .detail(++attempt)) {
+                        Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+                        Key<ConferenceSeats> seatsKey = ConferenceSeats.key(conferenceKey);
+                        Key<SeatHold> holdKey = SeatHold.key(conferenceKey, userId);
+                        Key<Profile> profileKey = Key.create(Profile.class, userId);
+                        ofy().load().values(Arrays.<Key<?>>asList(
+                                conferenceKey, seatsKey, holdKey, profileKey));
+                        Conference conference = ofy().load().key(conferenceKey).now();
+                        if (conference == null) {
+                            return new SeatResult(Status.NOT_FOUND, -1);
+                        }
+                        ConferenceSeats seats = loadSeats(conference, seatsKey);
+                        Profile profile = ofy().load().key(profileKey).now();
+                        if (profile != null && profile.getConferenceKeysToAttend()
+                                .contains(websafeConferenceKey)) {
+                            return new SeatResult(Status.ALREADY_REGISTERED,
+                                    conference.getSeatsAvailable());
+                        }
+                        SeatHold hold = ofy().load().key(holdKey).now();
+                        if (hold != null && !hold.hasExpired(new Date())) {
+                            return new SeatResult(Status.HELD, conference.getSeatsAvailable(),
+                                    hold);
+                        }
+                        SeatHold renewed = new SeatHold(websafeConferenceKey, userId, expiresAt);
+                        if (hold != null) {
+                            // The expired hold still has its seat, so only the expiry moves.
+                            ofy().save().entity(renewed).now();
+                            return new SeatResult(Status.HELD, conference.getSeatsAvailable(),
+                                    renewed);
+                        }
+                        if (conference.getSeatsAvailable() <= 0) {
+                            return new SeatResult(Status.NO_SEATS,
+                                    conference.getSeatsAvailable());
+                        }
+                        conference.bookSeats(1);
+                        seats.copyFrom(conference);
+                        conferenceWritten.set(saveSeats(conference, seats,
+                                Collections.<Object>singletonList(renewed)));
+                        seatsWritten.set(true);
+                        return new SeatResult(Status.HELD, conference.getSeatsAvailable(),
+                                renewed);
+                    } catch (Exception e) {
+                        return new SeatResult(Status.FAILED, -1);
+                    }
+                }
+            });
+        }
+        if (seatsWritten.get()) {
+            invalidateSeats(websafeConferenceKey, conferenceWritten.get());
+            countSeatWrite(conferenceWritten.get());
+        }
+        return seatResult;
+    }
+
+    @Override
+    public SeatResult confirmHold(final Profile defaultProfile, final String websafeConferenceKey,
+                                  final Date now) {
+        SeatResult seatResult;
+        final AtomicBoolean conferenceWritten = new AtomicBoolean();
+        final AtomicBoolean seatsWritten = new AtomicBoolean();
+        try (Span span = Tracing.span("transaction", "confirmHold")) {
+            seatResult = ofy().transact(new Work<SeatResult>() {
+                private int attempt;
+
+                public SeatResult run() {
+                    conferenceWritten.set(false);
+                    seatsWritten.set(false);
+                    // Objectify runs the Work again when the commit hits contention.
+                    try (Span attemptSpan = Tracing.span("attempt", "confirmHold")
+                            .detail(++attempt)) {
+                        Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+                        Key<ConferenceSeats> seatsKey = ConferenceSeats.key(conferenceKey);
+                        Key<SeatHold> holdKey =
+                                SeatHold.key(conferenceKey, defaultProfile.getUserId());
+                        Key<Profile> profileKey =
+                                Key.create(Profile.class, defaultProfile.getUserId());
+                        ofy().load().values(Arrays.<Key<?>>asList(
+                                conferenceKey, seatsKey, holdKey, profileKey));
+                        Conference conference = ofy().load().key(conferenceKey).now();
+                        if (conference == null) {
+                            return new SeatResult(Status.NOT_FOUND, -1);
+                        }
+                        ConferenceSeats seats = loadSeats(conference, seatsKey);
+                        SeatHold hold = ofy().load().key(holdKey).now();
+                        if (hold == null) {
+                            return new SeatResult(Status.NOT_HELD,
+                                    conference.getSeatsAvailable());
+                        }
+                        Profile profile = ofy().load().key(profileKey).now();
+                        if (profile == null) {
+                            profile = defaultProfile;
+                        }
+                        ofy().delete().key(holdKey).now();
+                        boolean attending =
+                                profile.getConferenceKeysToAttend().contains(websafeConferenceKey);
+                        if (attending || hold.hasExpired(now)) {
+                            // The held seat is not needed, so it goes back.
+                            conference.giveBackSeats(1);
+                            seats.copyFrom(conference);
+                            conferenceWritten.set(saveSeats(conference, seats,
+                                    Collections.<Object>emptyList()));
+                            seatsWritten.set(true);
+                            return new SeatResult(attending ? Status.ALREADY_REGISTERED
+                                    : Status.NOT_HELD, conference.getSeatsAvailable());
+                        }
+                        profile.addToConferenceKeysToAttend(websafeConferenceKey);
+                        ofy().save().entity(profile).now();
+                        return new SeatResult(Status.REGISTERED, conference.getSeatsAvailable());
+                    } catch (Exception e) {
+                        return new SeatResult(Status.FAILED, -1);
+                    }
+                }
+            });
+        }
+        if (seatsWritten.get()) {
+            invalidateSeats(websafeConferenceKey, conferenceWritten.get());
+            countSeatWrite(conferenceWritten.get());
+        }
+        return seatResult;
+    }
+
+    @Override
+    public SeatResult releaseHold(final String userId, final String websafeConferenceKey) {
+        SeatResult seatResult;
+        final AtomicBoolean conferenceWritten = new AtomicBoolean();
+        try (Span span = Tracing.span("transaction", "releaseHold")) {
+            seatResult = ofy().transact(new Work<SeatResult>() {
+                private int attempt;
+
+                public SeatResult run() {
+                    conferenceWritten.set(false);
+                    // Objectify runs the Work again when the commit hits contention.
+                    try (Span attemptSpan = Tracing.span("attempt", "releaseHold")
+                            .detail(++attempt)) {
+                        Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+                        Key<ConferenceSeats> seatsKey = ConferenceSeats.key(conferenceKey);
+                        Key<SeatHold> holdKey = SeatHold.key(conferenceKey, userId);
+                        ofy().load().values(Arrays.<Key<?>>asList(
+                                conferenceKey, seatsKey, holdKey));
+                        Conference conference = ofy().load().key(conferenceKey).now();
+                        SeatHold hold = ofy().load().key(holdKey).now();
+                        if (hold == null) {
+                            return new SeatResult(Status.NOT_HELD, conference == null ? -1
+                                    : loadSeats(conference, seatsKey).getSeatsAvailable());
+                        }
+                        ofy().delete().key(holdKey).now();
+                        if (conference == null) {
+                            return new SeatResult(Status.RELEASED, -1);
+                        }
+                        ConferenceSeats seats = loadSeats(conference, seatsKey);
+                        conference.giveBackSeats(1);
+                        seats.copyFrom(conference);
+                        conferenceWritten.set(saveSeats(conference, seats,
+                                Collections.<Object>emptyList()));
+                        return new SeatResult(Status.RELEASED, conference.getSeatsAvailable());
+                    } catch (Exception e) {
+                        return new SeatResult(Status.FAILED, -1);
+                    }
+                }
+            });
+        }
+        if (seatResult.getStatus() == Status.RELEASED && seatResult.getSeatsAvailable() >= 0) {
+            invalidateSeats(websafeConferenceKey, conferenceWritten.get());
+            countSeatWrite(conferenceWritten.get());
+        }
+        return seatResult;
+    }
+
+    @Override
+    public int releaseExpiredHolds(final String websafeConferenceKey, final Date now,
+                                   final int limit) {
+        final AtomicBoolean conferenceWritten = new AtomicBoolean();
+        int released;
+        try (Span span = Tracing.span("transaction", "releaseExpiredHolds")) {
+            released = ofy().transact(new Work<Integer>() {
+                public Integer run() {
+                    conferenceWritten.set(false);
+                    Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+                    Key<ConferenceSeats> seatsKey = ConferenceSeats.key(conferenceKey);
+                    // Start the seat gets while the holds are queried.
+                    ofy().load().values(Arrays.<Key<?>>asList(conferenceKey, seatsKey));
+                    // The composite index on the ancestor and expiresAt, see
+                    // datastore-indexes.xml, returns only the expired holds, keys only.
+                    List<Key<SeatHold>> expired = ofy().load().type(SeatHold.class)
+                            .ancestor(conferenceKey).filter("expiresAt <=", now).limit(limit)
+                            .keys().list();
+                    if (expired.isEmpty()) {
+                        return 0;
+                    }
+                    ofy().delete().keys(expired).now();
+                    Conference conference = ofy().load().key(conferenceKey).now();
+                    if (conference != null) {
+                        ConferenceSeats seats = loadSeats(conference, seatsKey);
+                        conference.giveBackSeats(expired.size());
+                        seats.copyFrom(conference);
+                        conferenceWritten.set(saveSeats(conference, seats,
+                                Collections.<Object>emptyList()));
+                    }
+                    return expired.size();
+                }
+            });
+        }
+        if (released > 0) {
+            invalidateSeats(websafeConferenceKey, conferenceWritten.get());
+            countSeatWrite(conferenceWritten.get());
+        }
+        return released;
+    }
+
+    @Override
+    public int deleteIdempotencyRecordsCreatedBefore(Date before, int limit) {
+        List<Key<IdempotencyRecord>> keys;
+        try (Span span = Tracing.span("query", "IdempotencyRecord").detail("expired, keys only")) {
+            keys = ofy().load().type(IdempotencyRecord.class).filter("createdAt <", before)
+                    .limit(limit).keys().list();
+        }
+        if (!keys.isEmpty()) {
+            try (Span span = Tracing.span("delete", "IdempotencyRecord")) {
+                ofy().delete().keys(keys).now();
+            }
+        }
+        return keys.size();
+    }
+
+    @Override
+    public List<String> getConferencesWithExpiredHolds(Date now, int limit) {
+        Set<String> websafeConferenceKeys = new LinkedHashSet<>();
+        try (Span span = Tracing.span("query", "SeatHold").detail("expired, keys only")) {
+            for (Key<SeatHold> key : ofy().load().type(SeatHold.class)
+                    .filter("expiresAt <=", now).limit(limit).keys()) {
+                websafeConferenceKeys.add(key.getParent().getString());
+            }
+        }
+        return new ArrayList<>(websafeConferenceKeys);
+    }
+}
@@ -0,0 +1,70 @@
+package com.google.devrel.training.conference.repository;
+
+import com.google.devrel.training.conference.domain.SeatHold;
+
+/**
+ * The outcome of a seat operation on a Conference, together with the seats left afterwards.
+ */
+public class SeatResult {
+
+    /**
+     * Enum representing what a seat operation did.
+     */
+    public static enum Status {
+        REGISTERED,
+        UNREGISTERED,
+        NOT_FOUND,
+        ALREADY_REGISTERED,
+        NOT_REGISTERED,
+        NO_SEATS,
+        HELD,
+        NOT_HELD,
+        RELEASED,
+        FAILED
+    }
+
+    private final Status status;
+
+    private final int seatsAvailable;
+
+    private final SeatHold hold;
+
+    /**
+     * @param status what the operation did.
+     * @param seatsAvailable the seats available after the operation, -1 when unknown.
+     */
+    public SeatResult(Status status, int seatsAvailable) {
+        this(status, seatsAvailable, null);
+    }
+
+    /**
+     * @param status what the operation did.
+     * @param seatsAvailable the seats available after the operation, -1 when unknown.
+     * @param hold the SeatHold the user has after the operation.
+     */
+    public SeatResult(Status status, int seatsAvailable, SeatHold hold) {
+        this.status = status;
+        this.seatsAvailable = seatsAvailable;
+        this.hold = hold;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns the seats available after the operation.
+     * @return the number of seats, -1 when the Conference was not read.
+     */
+    public int getSeatsAvailable() {
+        return seatsAvailable;
+    }
+
+    /**
+     * Returns the hold of the user after a hold operation.
+     * @return the SeatHold, or null when the user holds no seat.
+     */
+    public SeatHold getHold() {
+        return hold;
+    }
+}
@@ -0,0 +1,177 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.devrel.training.conference.domain.Conference;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks how often each Conference is accessed on this instance, to find hot keys early.
+ *
+ * Accesses are counted in a count-min sketch and the heaviest keys are kept in a small table.
+ * Every DECAY_MILLIS all counts are halved, so the counts reflect recent traffic. Checking
+ * whether a key is hot costs a few array reads, cheap enough for the request path.
+ */
+public class AccessTracker {
+
+    private static final long DECAY_MILLIS = 60 * 1000;
+
+    /**
+     * The number of heavy hitters kept.
+     */
+    private static final int TOP_CAPACITY = 32;
+
+    /**
+     * A key is hot when it has at least this share of all recent accesses...
+     */
+    private static final double HOT_SHARE = 0.01;
+
+    /**
+     * ...and at least this many recent accesses, so a quiet instance has no hot keys.
+     */
+    private static final long HOT_MIN_COUNT = 20;
+
+    private static final CountMinSketch SKETCH = new CountMinSketch(4, 2048);
+
+    private static final ConcurrentMap<String, Long> TOP = new ConcurrentHashMap<>();
+
+    private static final AtomicLong TOTAL = new AtomicLong();
+
+    private static final AtomicLong LAST_DECAY = new AtomicLong(System.currentTimeMillis());
+
+    private AccessTracker() {}
+
+    /**
+     * A Conference key with its estimated number of recent accesses.
+     */
+    public static class HotKey {
+        private final String websafeConferenceKey;
+        private final long count;
+
+        public HotKey(String websafeConferenceKey, long count) {
+            this.websafeConferenceKey = websafeConferenceKey;
+            this.count = count;
+        }
+
+        public String getWebsafeConferenceKey() {
+            return websafeConferenceKey;
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * Records one access to the given Conference.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     */
+    public static void record(String websafeConferenceKey) {
+        maybeDecay();
+        TOTAL.incrementAndGet();
+        long count = SKETCH.add(websafeConferenceKey);
+        if (TOP.containsKey(websafeConferenceKey) || TOP.size() < TOP_CAPACITY) {
+            TOP.put(websafeConferenceKey, count);
+        } else if (count > minTopCount()) {
+            TOP.put(websafeConferenceKey, count);
+            evictMin();
+        }
+    }
+
+    /**
+     * Records one access to each of the given Conferences, as returned by a list endpoint.
+     *
+     * @param conferences the Conferences returned.
+     */
+    public static void recordAll(Iterable<Conference> conferences) {
+        for (Conference conference : conferences) {
+            record(conference.getWebsafeKey());
+        }
+    }
+
+    /**
+     * Returns whether the given Conference is hot right now.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return true when the key has a large share of the recent accesses.
+     */
+    public static boolean isHot(String websafeConferenceKey) {
+        long count = SKETCH.estimate(websafeConferenceKey);
+        return count >= HOT_MIN_COUNT && count >= TOTAL.get() * HOT_SHARE;
+    }
+
+    /**
+     * Returns the heaviest keys, most accessed first.
+     *
+     * @return a List of HotKeys.
+     */
+    public static List<HotKey> getHotKeys() {
+        List<HotKey> hotKeys = new ArrayList<>(0);
+        for (Map.Entry<String, Long> entry : TOP.entrySet()) {
+            // The sketch holds the decayed count, the table only the count at the last access.
+            hotKeys.add(new HotKey(entry.getKey(), SKETCH.estimate(entry.getKey())));
+        }
+        Collections.sort(hotKeys, new Comparator<HotKey>() {
+            @Override
+            public int compare(HotKey left, HotKey right) {
+                return Long.compare(right.count, left.count);
+            }
+        });
+        return hotKeys;
+    }
+
+    /**
+     * Returns the total number of accesses recorded recently.
+     * @return the decayed total.
+     */
+    public static long getTotal() {
+        return TOTAL.get();
+    }
+
+    private static void maybeDecay() {
+        long last = LAST_DECAY.get();
+        long now = System.currentTimeMillis();
+        if (now - last >= DECAY_MILLIS && LAST_DECAY.compareAndSet(last, now)) {
+            SKETCH.decay();
+            long total;
+            do {
+                total = TOTAL.get();
+            } while (!TOTAL.compareAndSet(total, total >> 1));
+            for (Map.Entry<String, Long> entry : TOP.entrySet()) {
+                TOP.replace(entry.getKey(), entry.getValue(), entry.getValue() >> 1);
+            }
+        }
+    }
+
+    private static long minTopCount() {
+        long min = Long.MAX_VALUE;
+        for (Long count : TOP.values()) {
+            min = Math.min(min, count);
+        }
+        return min;
+    }
+
+    /**
+     * Shrinks the table back to its capacity by dropping the lightest keys.
+     */
+    private static synchronized void evictMin() {
+        while (TOP.size() > TOP_CAPACITY) {
+            String minKey = null;
+            long min = Long.MAX_VALUE;
+            for (Map.Entry<String, Long> entry : TOP.entrySet()) {
+                if (entry.getValue() < min) {
+                    min = entry.getValue();
+                    minKey = entry.getKey();
+                }
+            }
+            TOP.remove(minKey);
+        }
+    }
+}
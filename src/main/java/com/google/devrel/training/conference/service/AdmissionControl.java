@@ -0,0 +1,238 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-conference admission control in front of the registration transaction.
+ *
+ * Every Conference gets a token bucket whose refill rate follows the rate at which registration
+ * transactions actually commit for it: when a window sees contention (throttled calls or failed
+ * commits) the rate drops to the observed commit rate plus some headroom, otherwise it grows
+ * back slowly. The gate also remembers the last seatsAvailable returned by a seat transaction
+ * on this instance, so calls for a conference known to be sold out are rejected without
+ * touching the datastore. Plain reads are not recorded, since they may come from a cache.
+ *
+ * Only keys of Conferences get a gate, and at most MAX_GATES gates are kept, so the gates of
+ * conferences nobody registers for any more are dropped. A call with any other key is admitted
+ * and left for the repository to answer as not found.
+ */
+public class AdmissionControl {
+
+    /**
+     * Refill rate in registrations per second used before any commits are observed.
+     */
+    private static final double INITIAL_RATE = 20.0;
+
+    private static final double MIN_RATE = 1.0;
+
+    private static final double MAX_RATE = 200.0;
+
+    /**
+     * How much the bucket may exceed the observed commit rate under contention.
+     */
+    private static final double HEADROOM = 1.5;
+
+    /**
+     * Weight of the latest window in the moving average of the commit rate.
+     */
+    private static final double ALPHA = 0.3;
+
+    private static final long WINDOW_MILLIS = 1000;
+
+    /**
+     * How long a sold out view is trusted before one call is let through to refresh it.
+     */
+    private static final long SOLD_OUT_TTL_MILLIS = 5000;
+
+    private static final int MAX_GATES = 10000;
+
+    private static final LoadingCache<String, Gate> GATES = CacheBuilder.newBuilder()
+            .maximumSize(MAX_GATES)
+            .expireAfterAccess(10, TimeUnit.MINUTES)
+            .build(new CacheLoader<String, Gate>() {
+                @Override
+                public Gate load(String websafeConferenceKey) {
+                    return new Gate(System.currentTimeMillis());
+                }
+            });
+
+    private AdmissionControl() {}
+
+    /**
+     * The outcome of an admission check.
+     */
+    public static class Admission {
+
+        private static final Admission ADMITTED = new Admission(true, false, 0);
+
+        private final boolean admitted;
+        private final boolean soldOut;
+        private final int retryAfterSeconds;
+
+        private Admission(boolean admitted, boolean soldOut, int retryAfterSeconds) {
+            this.admitted = admitted;
+            this.soldOut = soldOut;
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        public boolean isAdmitted() {
+            return admitted;
+        }
+
+        public boolean isSoldOut() {
+            return soldOut;
+        }
+
+        /**
+         * Returns how long the caller should wait before trying again. The API hands it to
+         * clients at the end of the error message, as "Retry after N seconds".
+         * @return the number of seconds, 0 when the call was admitted.
+         */
+        public int getRetryAfterSeconds() {
+            return retryAfterSeconds;
+        }
+    }
+
+    /**
+     * Decides whether a registration for the given Conference may enter the transaction.
+     * Every admitted call must be followed by a call to {@link #complete}.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the Admission decision.
+     */
+    public static Admission admit(String websafeConferenceKey) {
+        Gate gate = gate(websafeConferenceKey);
+        if (gate == null) {
+            Metrics.increment("registration.badKey");
+            return Admission.ADMITTED;
+        }
+        Admission admission = gate.admit(System.currentTimeMillis());
+        if (admission.isAdmitted()) {
+            Metrics.increment("registration.admitted");
+        } else if (admission.isSoldOut()) {
+            Metrics.increment("registration.rejected.soldOut");
+        } else {
+            Metrics.increment("registration.rejected.throttled");
+        }
+        return admission;
+    }
+
+    /**
+     * Reports the outcome of an admitted registration transaction.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param committed whether the transaction committed.
+     */
+    public static void complete(String websafeConferenceKey, boolean committed) {
+        Gate gate = gate(websafeConferenceKey);
+        if (gate != null) {
+            gate.complete(committed, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Updates the in-process view of the seats available for the given Conference.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param seatsAvailable the number of seats available as returned by a SeatResult.
+     */
+    public static void recordSeats(String websafeConferenceKey, int seatsAvailable) {
+        Gate gate = gate(websafeConferenceKey);
+        if (gate != null) {
+            gate.recordSeats(seatsAvailable, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Returns the gate of a Conference, or null when the key is not the key of a Conference.
+     */
+    private static Gate gate(String websafeConferenceKey) {
+        Gate gate = GATES.getIfPresent(websafeConferenceKey);
+        if (gate == null && SeatFeedHub.isConferenceKey(websafeConferenceKey)) {
+            gate = GATES.getUnchecked(websafeConferenceKey);
+        }
+        return gate;
+    }
+
+    /**
+     * Token bucket and seat view for a single Conference.
+     */
+    private static class Gate {
+        private double rate = INITIAL_RATE;
+        private double tokens = INITIAL_RATE;
+        private long lastRefill;
+
+        private double commitRate = -1;
+        private long windowStart;
+        private int windowCommits;
+        private boolean windowContended;
+
+        private int seatsAvailable = -1;
+        private long seatsObservedAt;
+
+        Gate(long now) {
+            this.lastRefill = now;
+            this.windowStart = now;
+        }
+
+        synchronized Admission admit(long now) {
+            if (seatsAvailable == 0 && now - seatsObservedAt < SOLD_OUT_TTL_MILLIS) {
+                int retryAfter = (int) ((SOLD_OUT_TTL_MILLIS - (now - seatsObservedAt) + 999) / 1000);
+                return new Admission(false, true, retryAfter);
+            }
+            refill(now);
+            if (tokens >= 1) {
+                tokens -= 1;
+                return Admission.ADMITTED;
+            }
+            windowContended = true;
+            int retryAfter = (int) Math.ceil((1 - tokens) / rate);
+            return new Admission(false, false, Math.max(1, retryAfter));
+        }
+
+        synchronized void complete(boolean committed, long now) {
+            rollWindow(now);
+            if (committed) {
+                windowCommits++;
+            } else {
+                windowContended = true;
+            }
+        }
+
+        synchronized void recordSeats(int seatsAvailable, long now) {
+            this.seatsAvailable = seatsAvailable;
+            this.seatsObservedAt = now;
+        }
+
+        private void refill(long now) {
+            rollWindow(now);
+            double elapsedSeconds = (now - lastRefill) / 1000.0;
+            tokens = Math.min(Math.max(1, rate), tokens + elapsedSeconds * rate);
+            lastRefill = now;
+        }
+
+        /**
+         * Closes the current measuring window if it is over and adapts the refill rate.
+         */
+        private void rollWindow(long now) {
+            long elapsed = now - windowStart;
+            if (elapsed < WINDOW_MILLIS) {
+                return;
+            }
+            double observed = windowCommits * 1000.0 / elapsed;
+            commitRate = commitRate < 0 ? observed : ALPHA * observed + (1 - ALPHA) * commitRate;
+            if (windowContended) {
+                rate = Math.max(MIN_RATE, commitRate * HEADROOM);
+            } else {
+                rate = Math.min(MAX_RATE, rate + 1);
+            }
+            windowStart = now;
+            windowCommits = 0;
+            windowContended = false;
+        }
+    }
+}
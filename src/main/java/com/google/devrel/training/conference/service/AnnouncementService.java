@@ -0,0 +1,89 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.RepositoryService.repository;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.base.Joiner;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the "nearly sold out" announcement and keeps it in memcache under
+ * {@link Constants#MEMCACHE_ANNOUNCEMENTS_KEY}.
+ */
+public class AnnouncementService {
+
+    /**
+     * Conferences with fewer seats than this (but at least one) are announced.
+     */
+    private static final int NEARLY_SOLD_OUT_SEATS = 5;
+
+    /**
+     * Caps the number of conferences named in a single announcement.
+     */
+    private static final int MAX_ANNOUNCED = 20;
+
+    /**
+     * Outlives the cron interval so a missed run doesn't empty the cache.
+     */
+    private static final int EXPIRATION_SECONDS = 10 * 60;
+
+    private AnnouncementService() {}
+
+    /**
+     * Queries the nearly sold out conferences and builds the announcement message.
+     *
+     * @return the message, or an empty String when no conference is nearly sold out.
+     */
+    public static String buildAnnouncement() {
+        List<String> names = new ArrayList<>(0);
+        for (Conference conference : repository().getNearlySoldOut(NEARLY_SOLD_OUT_SEATS,
+                MAX_ANNOUNCED)) {
+            names.add(conference.getName());
+            // These are the conferences most likely to sell out, so keep their seats warm.
+            AdmissionControl.recordSeats(conference.getWebsafeKey(), conference.getSeatsAvailable());
+        }
+        if (names.isEmpty()) {
+            return "";
+        }
+        return "Last chance to attend! The following conferences are nearly sold out: "
+                + Joiner.on(", ").join(names);
+    }
+
+    /**
+     * Rebuilds the announcement and stores it in memcache.
+     *
+     * @return the message just stored.
+     */
+    public static String refreshAnnouncement() {
+        String message = buildAnnouncement();
+        // An empty message is cached too, so a quiet period doesn't rebuild on every read.
+        memcache().put(Constants.MEMCACHE_ANNOUNCEMENTS_KEY, message,
+                Expiration.byDeltaSeconds(EXPIRATION_SECONDS));
+        Metrics.increment("announcement.rebuilt");
+        return message;
+    }
+
+    /**
+     * Returns the cached announcement, rebuilding it on a cache miss.
+     *
+     * @return the message, or an empty String when there is nothing to announce.
+     */
+    public static String getAnnouncement() {
+        String message = (String) memcache().get(Constants.MEMCACHE_ANNOUNCEMENTS_KEY);
+        if (message == null) {
+            Metrics.increment("announcement.cacheMiss");
+            message = refreshAnnouncement();
+        }
+        return message;
+    }
+
+    private static MemcacheService memcache() {
+        return MemcacheServiceFactory.getMemcacheService();
+    }
+}
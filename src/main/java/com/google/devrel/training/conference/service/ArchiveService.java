@@ -0,0 +1,134 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.RepositoryService.repository;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.collect.Ordering;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.repository.ConferencePage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Moves Conferences that have ended out of the Conference kind, so that the indexes the
+ * catalog is queried by only hold Conferences that are still of interest.
+ *
+ * The ArchiveConferencesServlet cron job scans the Conferences that started before today in
+ * batches of BATCH_SIZE with a query cursor, and moves the ended ones to the archive. The
+ * cursor is kept in memcache after every batch, so a run that hits its time budget or dies is
+ * resumed by the next one. Moving a Conference twice is harmless, so a lost cursor only costs
+ * a rescan.
+ */
+public class ArchiveService {
+
+    private static final Logger LOG = Logger.getLogger(ArchiveService.class.getName());
+
+    private static final int BATCH_SIZE = 100;
+
+    /**
+     * How long a run archives before it leaves the rest to the next run.
+     */
+    private static final long BUDGET_MILLIS = 5 * 60 * 1000;
+
+    /**
+     * The cursor belongs to the query for one day, so the day is part of the key.
+     */
+    private static final String CURSOR_KEY_PREFIX = "ARCHIVE_CURSOR:";
+
+    private static final int CURSOR_TTL_SECONDS = 24 * 60 * 60;
+
+    /**
+     * The most archived Conferences returned by an unbounded history search.
+     */
+    private static final int MAX_ARCHIVED_RESULTS = 100;
+
+    private ArchiveService() {}
+
+    /**
+     * Archives the Conferences that ended before today, until done or out of time.
+     *
+     * @return the number of Conferences archived.
+     */
+    public static int archive() {
+        long start = System.currentTimeMillis();
+        Date now = new Date(start);
+        int today = Conference.toDay(now);
+        String cursorKey = CURSOR_KEY_PREFIX + today;
+        String cursor = (String) memcache().get(cursorKey);
+        int archived = 0;
+        int batches = 0;
+        while (System.currentTimeMillis() - start < BUDGET_MILLIS) {
+            ConferencePage page;
+            try {
+                page = repository().getEndedConferences(today, cursor, BATCH_SIZE);
+            } catch (IllegalArgumentException e) {
+                if (cursor == null) {
+                    throw e;
+                }
+                LOG.log(Level.WARNING, "Restarting the archival scan", e);
+                memcache().delete(cursorKey);
+                cursor = null;
+                continue;
+            }
+            if (!page.getConferences().isEmpty()) {
+                repository().archiveConferences(page.getConferences(), now);
+                archived += page.getConferences().size();
+            }
+            batches++;
+            cursor = page.getCursor();
+            if (cursor == null) {
+                memcache().delete(cursorKey);
+                break;
+            }
+            memcache().put(cursorKey, cursor, Expiration.byDeltaSeconds(CURSOR_TTL_SECONDS));
+        }
+        Metrics.add("archive.archived", archived);
+        LOG.info("Archived " + archived + " conferences in " + batches + " batches, "
+                + (cursor == null ? "done" : "to be continued"));
+        return archived;
+    }
+
+    /**
+     * Runs a query over the live Conferences and, when the form asks for it, the archive.
+     * Archived Conferences are merged into the results in the form's order.
+     *
+     * @param conferenceQueryForm the query options.
+     * @return a List of Conferences.
+     */
+    public static List<Conference> query(ConferenceQueryForm conferenceQueryForm) {
+        List<Conference> live = repository().queryConferences(conferenceQueryForm);
+        if (!conferenceQueryForm.isIncludeArchived()) {
+            return live;
+        }
+        Integer pageSize = conferenceQueryForm.getPageSize();
+        boolean ranked = conferenceQueryForm.getRankBy() != null;
+        int limit = ranked ? conferenceQueryForm.topK()
+                : pageSize != null ? pageSize : MAX_ARCHIVED_RESULTS;
+        List<Conference> archived = repository().queryArchivedConferences(conferenceQueryForm,
+                ranked ? Integer.MAX_VALUE : limit);
+        Metrics.add("archive.searched", archived.size());
+        if (archived.isEmpty()) {
+            return live;
+        }
+        List<Conference> merged = new ArrayList<>(live);
+        merged.addAll(archived);
+        if (ranked) {
+            return Ordering.from(conferenceQueryForm.ranking()).leastOf(merged, limit);
+        }
+        Collections.sort(merged, conferenceQueryForm.ordering());
+        return pageSize != null && merged.size() > pageSize
+                ? new ArrayList<>(merged.subList(0, pageSize)) : merged;
+    }
+
+    private static MemcacheService memcache() {
+        return MemcacheServiceFactory.getMemcacheService();
+    }
+}
@@ -0,0 +1,221 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.RepositoryService.repository;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.repository.ConferencePage;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In-process read view of the Conference catalog: the latest CatalogSnapshot plus the
+ * Conferences changed since it was written.
+ *
+ * A new instance reads the snapshot during warmup and catches up with the Conferences the
+ * repository reports as changed or removed since, so it can serve Conference reads without a
+ * datastore get each. The view catches up again when the CatchUpCatalogServlet cron job reaches
+ * the instance, never on a user request. A view that has not caught up for MAX_STALE_MILLIS is
+ * not served, so instances the cron job does not reach fall back to the datastore. Conferences
+ * written on this instance are read from the datastore until the view has caught up with the
+ * write.
+ *
+ * The snapshot is written by the WriteSnapshotServlet cron job to the Cloud Storage object
+ * named by the conference.snapshot.object system property, in the application's default
+ * bucket, since instances share no file system. Without that property the view is empty.
+ */
+public class Catalog {
+
+    private static final Logger LOG = Logger.getLogger(Catalog.class.getName());
+
+    /**
+     * How long the view is served after its last catch-up. The cron job runs every minute.
+     */
+    private static final long MAX_STALE_MILLIS = 2 * 60 * 1000;
+
+    /**
+     * How far back each catch-up looks again, since the lastModified query is eventually
+     * consistent and instance clocks differ.
+     */
+    private static final long SLACK_MILLIS = 30 * 1000;
+
+    private static final int CHUNK = 500;
+
+    private static final String SNAPSHOT_TYPE = "application/octet-stream";
+
+    private static volatile CatalogSnapshot snapshot;
+
+    /**
+     * Conferences changed since the snapshot, by websafe key.
+     */
+    private static final ConcurrentMap<String, Conference> CHANGED = new ConcurrentHashMap<>();
+
+    /**
+     * When Conferences written on this instance were written, until the view has caught up.
+     */
+    private static final ConcurrentMap<String, Long> STALE = new ConcurrentHashMap<>();
+
+    /**
+     * Conferences removed from the catalog since the snapshot, by websafe key.
+     */
+    private static final Set<String> REMOVED =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private static final AtomicBoolean CATCHING_UP = new AtomicBoolean();
+
+    private static volatile long caughtUpTo;
+
+    private static volatile long lastCatchUp;
+
+    private Catalog() {}
+
+    /**
+     * Returns the name of the snapshot object.
+     * @return the object name, or null if no snapshot is configured.
+     */
+    public static String snapshotObject() {
+        String object = System.getProperty("conference.snapshot.object");
+        return object == null || object.isEmpty() ? null : object;
+    }
+
+    /**
+     * Writes a snapshot of all Conferences to the snapshot object.
+     *
+     * @return the number of Conferences written.
+     * @throws IOException when the snapshot object cannot be written.
+     * @throws IllegalStateException when no snapshot object is configured.
+     */
+    public static int writeSnapshot() throws IOException {
+        String object = snapshotObject();
+        if (object == null) {
+            throw new IllegalStateException("conference.snapshot.object is not set");
+        }
+        // Changes made while the Conferences are read are caught up by the readers.
+        long start = System.currentTimeMillis();
+        List<Conference> conferences = repository().getAllConferences();
+        CloudStorage.write(CloudStorage.defaultBucket(), object,
+                CatalogSnapshot.toBytes(conferences, start), SNAPSHOT_TYPE);
+        LOG.info("Wrote a catalog snapshot of " + conferences.size() + " conferences in "
+                + (System.currentTimeMillis() - start) + " ms");
+        return conferences.size();
+    }
+
+    /**
+     * Reads the latest snapshot, if there is one, and catches up with the changes since. Any
+     * failure leaves the view empty, the instance then reads from the datastore.
+     *
+     * @return the number of Conferences in the snapshot, 0 when there is none.
+     */
+    public static int open() {
+        String object = snapshotObject();
+        if (object == null) {
+            return 0;
+        }
+        try {
+            byte[] data = CloudStorage.read(CloudStorage.defaultBucket(), object);
+            if (data == null) {
+                return 0;
+            }
+            CatalogSnapshot opened = CatalogSnapshot.open(data);
+            CHANGED.clear();
+            REMOVED.clear();
+            caughtUpTo = opened.getSnapshotMillis();
+            snapshot = opened;
+            catchUp();
+            return opened.size();
+        } catch (IOException | RuntimeException e) {
+            // RuntimeException covers the SecurityException of a sandbox that refuses access.
+            LOG.log(Level.WARNING, "Could not open the catalog snapshot " + object, e);
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the Conference as of the last catch-up.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return a copy of the Conference, or null when the view does not have it.
+     */
+    public static Conference get(String websafeConferenceKey) {
+        CatalogSnapshot current = snapshot;
+        if (current == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - lastCatchUp > MAX_STALE_MILLIS) {
+            Metrics.increment("catalog.stale");
+            return null;
+        }
+        if (STALE.containsKey(websafeConferenceKey) || REMOVED.contains(websafeConferenceKey)) {
+            return null;
+        }
+        Conference changed = CHANGED.get(websafeConferenceKey);
+        Conference conference = changed == null ? current.find(websafeConferenceKey)
+                : changed.copy();
+        Metrics.increment(conference == null ? "catalog.miss" : "catalog.hit");
+        return conference;
+    }
+
+    /**
+     * Stops serving the Conference from the view until a catch-up sees its latest change.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     */
+    public static void invalidate(String websafeConferenceKey) {
+        if (snapshot != null) {
+            STALE.put(websafeConferenceKey, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Loads the Conferences changed and the ones removed since the last catch-up. Only one
+     * thread catches up at a time, the others keep reading the view as it is.
+     *
+     * @return the number of changed Conferences loaded, 0 when there is no view.
+     */
+    public static int catchUp() {
+        if (snapshot == null || !CATCHING_UP.compareAndSet(false, true)) {
+            return 0;
+        }
+        int count = 0;
+        try {
+            long start = System.currentTimeMillis();
+            Date since = new Date(caughtUpTo - SLACK_MILLIS);
+            String cursor = null;
+            do {
+                ConferencePage page = repository().getConferencesChangedSince(since, cursor,
+                        CHUNK);
+                for (Conference conference : page.getConferences()) {
+                    String websafeConferenceKey = conference.getWebsafeKey();
+                    CHANGED.put(websafeConferenceKey, conference.copy());
+                    count++;
+                    // The query may return an older version until the write has settled.
+                    Long writtenAt = STALE.get(websafeConferenceKey);
+                    if (writtenAt != null && start - writtenAt > SLACK_MILLIS) {
+                        STALE.remove(websafeConferenceKey, writtenAt);
+                    }
+                }
+                cursor = page.getCursor();
+            } while (cursor != null);
+            for (String websafeConferenceKey : repository().getRemovedSince(since)) {
+                REMOVED.add(websafeConferenceKey);
+                CHANGED.remove(websafeConferenceKey);
+            }
+            caughtUpTo = start;
+            lastCatchUp = System.currentTimeMillis();
+            Metrics.add("catalog.caughtUp", count);
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Catalog catch-up failed", e);
+        } finally {
+            CATCHING_UP.set(false);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,303 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Conference.Availability;
+import com.google.devrel.training.conference.form.ConferenceForm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A compact, read-only binary copy of the Conference catalog, held off the heap in a direct
+ * ByteBuffer.
+ *
+ * A snapshot holds a header, one fixed-width record per Conference sorted by websafe key, a
+ * pool of topic references, a pool of indexed days and a table of distinct strings. Records
+ * refer to strings by index, so each city and topic is stored once. A record keeps the stored
+ * state of its Conference, lastModified included, so a Conference read from the snapshot is
+ * the one the datastore holds. Opening a snapshot copies it into the buffer and reads
+ * the header only; records and strings are decoded when they are looked up, so the heap only
+ * holds the Conferences and strings in use.
+ *
+ * <pre>
+ * header   magic, version, snapshotMillis, recordCount, topicCount, dayCount, stringCount
+ * record   id, startMillis, endMillis, lastModifiedMillis, key, organizer, name, description,
+ *          city, firstTopic, topicCount, firstDay, dayCount, maxAttendees, seatsAvailable,
+ *          availability
+ * topics   string index per topic
+ * days     yyyymmdd number per day
+ * strings  stringCount + 1 offsets into the UTF-8 data, then the data
+ * </pre>
+ */
+public class CatalogSnapshot {
+
+    private static final int MAGIC = 0x43434331;
+
+    private static final int VERSION = 2;
+
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 4 + 4 + 4 + 4;
+
+    private static final int RECORD_BYTES = 8 * 4 + 4 * 12;
+
+    /**
+     * Stored instead of a date or a string index when there is none.
+     */
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private static final int NO_STRING = -1;
+
+    /**
+     * Stored instead of a day count or an availability ordinal when there is none.
+     */
+    private static final int NONE = -1;
+
+    private static final Comparator<Conference> BY_KEY = new Comparator<Conference>() {
+        @Override
+        public int compare(Conference left, Conference right) {
+            return left.getWebsafeKey().compareTo(right.getWebsafeKey());
+        }
+    };
+
+    private final ByteBuffer buffer;
+    private final long snapshotMillis;
+    private final int recordCount;
+    private final int topicsOffset;
+    private final int daysOffset;
+    private final int stringOffsetsOffset;
+    private final int stringDataOffset;
+    private final AtomicReferenceArray<String> strings;
+
+    private CatalogSnapshot(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a catalog snapshot, or an unsupported version");
+        }
+        this.snapshotMillis = buffer.getLong(8);
+        this.recordCount = buffer.getInt(16);
+        int topicCount = buffer.getInt(20);
+        int dayCount = buffer.getInt(24);
+        int stringCount = buffer.getInt(28);
+        this.topicsOffset = HEADER_BYTES + recordCount * RECORD_BYTES;
+        this.daysOffset = topicsOffset + topicCount * 4;
+        this.stringOffsetsOffset = daysOffset + dayCount * 4;
+        this.stringDataOffset = stringOffsetsOffset + (stringCount + 1) * 4;
+        this.strings = new AtomicReferenceArray<>(stringCount);
+    }
+
+    /**
+     * Opens a snapshot from its serialized form.
+     *
+     * @param data the snapshot, as written by {@link #toBytes}.
+     * @return the CatalogSnapshot.
+     * @throws IOException when the data is not a snapshot.
+     */
+    public static CatalogSnapshot open(byte[] data) throws IOException {
+        if (data.length < HEADER_BYTES) {
+            throw new IOException("Not a catalog snapshot, only " + data.length + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data).flip();
+        return new CatalogSnapshot(buffer.asReadOnlyBuffer());
+    }
+
+    /**
+     * Serializes a snapshot of the given Conferences.
+     *
+     * @param conferences the Conferences in the catalog.
+     * @param snapshotMillis the time up to which the Conferences are known to be current.
+     * @return the snapshot.
+     */
+    public static byte[] toBytes(List<Conference> conferences, long snapshotMillis) {
+        List<Conference> sorted = new ArrayList<>(conferences);
+        Collections.sort(sorted, BY_KEY);
+
+        Map<String, Integer> stringIndex = new HashMap<>();
+        List<byte[]> stringData = new ArrayList<>(0);
+        List<Integer> topics = new ArrayList<>(0);
+        List<Integer> days = new ArrayList<>(0);
+        ByteBuffer records = ByteBuffer.allocate(sorted.size() * RECORD_BYTES);
+        for (Conference conference : sorted) {
+            records.putLong(conference.getId());
+            records.putLong(toMillis(conference.getStartDate()));
+            records.putLong(toMillis(conference.getEndDate()));
+            records.putLong(toMillis(conference.getLastModified()));
+            records.putInt(intern(conference.getWebsafeKey(), stringIndex, stringData));
+            records.putInt(intern(conference.getOrganizerUserId(), stringIndex, stringData));
+            records.putInt(intern(conference.getName(), stringIndex, stringData));
+            records.putInt(intern(conference.getDescription(), stringIndex, stringData));
+            records.putInt(intern(conference.getCity(), stringIndex, stringData));
+            List<String> conferenceTopics = conference.getTopics();
+            records.putInt(topics.size());
+            records.putInt(conferenceTopics == null ? 0 : conferenceTopics.size());
+            if (conferenceTopics != null) {
+                for (String topic : conferenceTopics) {
+                    topics.add(intern(topic, stringIndex, stringData));
+                }
+            }
+            records.putInt(days.size());
+            if (conference.isDaysIndexMissing()) {
+                records.putInt(NONE);
+            } else {
+                records.putInt(conference.getDays().size());
+                days.addAll(conference.getDays());
+            }
+            records.putInt(conference.getMaxAttendees());
+            records.putInt(conference.getSeatsAvailable());
+            Availability availability = conference.getAvailability();
+            records.putInt(availability == null ? NONE : availability.ordinal());
+        }
+
+        int dataBytes = 0;
+        for (byte[] bytes : stringData) {
+            dataBytes += bytes.length;
+        }
+        ByteBuffer out = ByteBuffer.allocate(HEADER_BYTES + records.capacity()
+                + (topics.size() + days.size()) * 4 + (stringData.size() + 1) * 4 + dataBytes);
+        out.putInt(MAGIC).putInt(VERSION).putLong(snapshotMillis).putInt(sorted.size())
+                .putInt(topics.size()).putInt(days.size()).putInt(stringData.size());
+        records.flip();
+        out.put(records);
+        for (int topic : topics) {
+            out.putInt(topic);
+        }
+        for (int day : days) {
+            out.putInt(day);
+        }
+        int offset = 0;
+        for (byte[] bytes : stringData) {
+            out.putInt(offset);
+            offset += bytes.length;
+        }
+        out.putInt(offset);
+        for (byte[] bytes : stringData) {
+            out.put(bytes);
+        }
+        return out.array();
+    }
+
+    private static long toMillis(Date date) {
+        return date == null ? NO_DATE : date.getTime();
+    }
+
+    private static int intern(String value, Map<String, Integer> stringIndex,
+                              List<byte[]> stringData) {
+        if (value == null) {
+            return NO_STRING;
+        }
+        Integer index = stringIndex.get(value);
+        if (index == null) {
+            index = stringData.size();
+            stringIndex.put(value, index);
+            stringData.add(value.getBytes(StandardCharsets.UTF_8));
+        }
+        return index;
+    }
+
+    /**
+     * Returns the time up to which the snapshot is current. Changes made after it must be
+     * caught up from the datastore.
+     *
+     * @return the snapshot time in milliseconds since the epoch.
+     */
+    public long getSnapshotMillis() {
+        return snapshotMillis;
+    }
+
+    /**
+     * Returns the number of Conferences in the snapshot.
+     * @return the number of records.
+     */
+    public int size() {
+        return recordCount;
+    }
+
+    /**
+     * Looks up a Conference by binary search over the records.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return a new Conference with the values in the snapshot, or null if there is none.
+     */
+    public Conference find(String websafeConferenceKey) {
+        int low = 0;
+        int high = recordCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = string(intAt(middle, 32)).compareTo(websafeConferenceKey);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return conference(middle);
+            }
+        }
+        return null;
+    }
+
+    private Conference conference(int record) {
+        int base = HEADER_BYTES + record * RECORD_BYTES;
+        List<String> topics = new ArrayList<>(0);
+        int firstTopic = intAt(record, 52);
+        for (int i = 0; i < intAt(record, 56); i++) {
+            topics.add(string(buffer.getInt(topicsOffset + (firstTopic + i) * 4)));
+        }
+        List<Integer> days = null;
+        int dayCount = intAt(record, 64);
+        if (dayCount != NONE) {
+            int firstDay = intAt(record, 60);
+            days = new ArrayList<>(dayCount);
+            for (int i = 0; i < dayCount; i++) {
+                days.add(buffer.getInt(daysOffset + (firstDay + i) * 4));
+            }
+        }
+        ConferenceForm conferenceForm = new ConferenceForm(string(intAt(record, 40)),
+                string(intAt(record, 44)), topics, string(intAt(record, 48)),
+                toDate(buffer.getLong(base + 8)), toDate(buffer.getLong(base + 16)),
+                intAt(record, 68));
+        Conference conference = new Conference(buffer.getLong(base), string(intAt(record, 36)),
+                conferenceForm);
+        int availability = intAt(record, 76);
+        conference.restoreStoredState(intAt(record, 72),
+                availability == NONE ? null : Availability.values()[availability], days,
+                toDate(buffer.getLong(base + 24)));
+        return conference;
+    }
+
+    private int intAt(int record, int field) {
+        return buffer.getInt(HEADER_BYTES + record * RECORD_BYTES + field);
+    }
+
+    private static Date toDate(long millis) {
+        return millis == NO_DATE ? null : new Date(millis);
+    }
+
+    /**
+     * Returns the string with the given index, decoding it on first use.
+     */
+    private String string(int index) {
+        if (index == NO_STRING) {
+            return null;
+        }
+        String value = strings.get(index);
+        if (value == null) {
+            int start = buffer.getInt(stringOffsetsOffset + index * 4);
+            int end = buffer.getInt(stringOffsetsOffset + (index + 1) * 4);
+            byte[] bytes = new byte[end - start];
+            ByteBuffer view = buffer.duplicate();
+            view.position(stringDataOffset + start);
+            view.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+            strings.set(index, value);
+        }
+        return value;
+    }
+}
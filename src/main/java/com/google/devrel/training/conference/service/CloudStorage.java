@@ -0,0 +1,121 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.appidentity.AppIdentityService;
+import com.google.appengine.api.appidentity.AppIdentityServiceFactory;
+import com.google.appengine.api.urlfetch.FetchOptions;
+import com.google.appengine.api.urlfetch.HTTPHeader;
+import com.google.appengine.api.urlfetch.HTTPMethod;
+import com.google.appengine.api.urlfetch.HTTPRequest;
+import com.google.appengine.api.urlfetch.HTTPResponse;
+import com.google.appengine.api.urlfetch.URLFetchServiceFactory;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads and writes whole objects in Google Cloud Storage through its JSON API, over URL Fetch
+ * and with the access token of the application's service account.
+ *
+ * Instances have no shared file system, so objects that every instance reads go here. An
+ * upload replaces the object atomically, so readers see the old or the new object, never a
+ * partial one. URL Fetch limits a request to MAX_UPLOAD_BYTES and a response to 32 MB.
+ */
+public class CloudStorage {
+
+    /**
+     * The largest object that can be written, the URL Fetch request limit.
+     */
+    public static final int MAX_UPLOAD_BYTES = 10 * 1024 * 1024;
+
+    private static final List<String> SCOPES =
+            Collections.singletonList("https://www.googleapis.com/auth/devstorage.read_write");
+
+    private static final String API = "https://www.googleapis.com/storage/v1/b/";
+
+    private static final String UPLOAD_API = "https://www.googleapis.com/upload/storage/v1/b/";
+
+    private static final double DEADLINE_SECONDS = 60;
+
+    private CloudStorage() {}
+
+    /**
+     * Returns the default Cloud Storage bucket of the application.
+     * @return the bucket name.
+     */
+    public static String defaultBucket() {
+        return appIdentity().getDefaultGcsBucketName();
+    }
+
+    /**
+     * Reads an object.
+     *
+     * @param bucket the bucket.
+     * @param object the name of the object.
+     * @return the content, or null when there is no such object.
+     * @throws IOException when the object cannot be read.
+     */
+    public static byte[] read(String bucket, String object) throws IOException {
+        HTTPResponse response = fetch(new URL(API + encode(bucket) + "/o/" + encode(object)
+                + "?alt=media"), HTTPMethod.GET, null, null);
+        if (response.getResponseCode() == 404) {
+            return null;
+        }
+        check(response, "read", bucket, object);
+        return response.getContent();
+    }
+
+    /**
+     * Writes an object, replacing it if it exists.
+     *
+     * @param bucket the bucket.
+     * @param object the name of the object.
+     * @param content the content, at most MAX_UPLOAD_BYTES.
+     * @param contentType the MIME type of the content.
+     * @throws IOException when the object cannot be written.
+     */
+    public static void write(String bucket, String object, byte[] content, String contentType)
+            throws IOException {
+        if (content.length > MAX_UPLOAD_BYTES) {
+            throw new IOException("Object " + object + " of " + content.length
+                    + " bytes exceeds the upload limit of " + MAX_UPLOAD_BYTES + " bytes");
+        }
+        HTTPResponse response = fetch(new URL(UPLOAD_API + encode(bucket)
+                + "/o?uploadType=media&name=" + encode(object)), HTTPMethod.POST, content,
+                contentType);
+        check(response, "write", bucket, object);
+    }
+
+    private static HTTPResponse fetch(URL url, HTTPMethod method, byte[] payload,
+                                      String contentType) throws IOException {
+        HTTPRequest request = new HTTPRequest(url, method,
+                FetchOptions.Builder.withDeadline(DEADLINE_SECONDS).validateCertificate());
+        request.addHeader(new HTTPHeader("Authorization",
+                "Bearer " + appIdentity().getAccessToken(SCOPES).getAccessToken()));
+        if (payload != null) {
+            request.addHeader(new HTTPHeader("Content-Type", contentType));
+            request.setPayload(payload);
+        }
+        return URLFetchServiceFactory.getURLFetchService().fetch(request);
+    }
+
+    private static void check(HTTPResponse response, String operation, String bucket,
+                              String object) throws IOException {
+        if (response.getResponseCode() / 100 != 2) {
+            throw new IOException("Could not " + operation + " gs://" + bucket + "/" + object
+                    + ": HTTP " + response.getResponseCode());
+        }
+    }
+
+    private static String encode(String value) throws UnsupportedEncodingException {
+        // Object names may contain slashes, which must be escaped in the path.
+        return URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+    }
+
+    private static AppIdentityService appIdentity() {
+        return AppIdentityServiceFactory.getAppIdentityService();
+    }
+}
@@ -0,0 +1,66 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.devrel.training.conference.domain.Conference;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process cache of hot Conferences, in front of the memcache tier Objectify provides.
+ *
+ * Only keys that AccessTracker reports as hot are admitted, so the cache holds the few
+ * Conferences that most requests ask for. Entries live for a few seconds: writes on this
+ * instance invalidate them right away, writes on other instances are seen after the TTL.
+ * The cache keeps its own copies and hands out copies, callers may change what they get.
+ */
+public class ConferenceCache {
+
+    private static final long TTL_SECONDS = 10;
+
+    private static final long MAX_SIZE = 1000;
+
+    private static final Cache<String, Conference> CACHE = CacheBuilder.newBuilder()
+            .expireAfterWrite(TTL_SECONDS, TimeUnit.SECONDS)
+            .maximumSize(MAX_SIZE)
+            .build();
+
+    private ConferenceCache() {}
+
+    /**
+     * Returns a copy of the cached Conference.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the Conference, or null on a miss.
+     */
+    public static Conference get(String websafeConferenceKey) {
+        Conference conference = CACHE.getIfPresent(websafeConferenceKey);
+        if (conference == null) {
+            Metrics.increment("conferenceCache.miss");
+            return null;
+        }
+        Metrics.increment("conferenceCache.hit");
+        return conference.copy();
+    }
+
+    /**
+     * Caches a copy of the Conference if its key is hot.
+     *
+     * @param conference the Conference just read from the datastore.
+     */
+    public static void putIfHot(Conference conference) {
+        String websafeConferenceKey = conference.getWebsafeKey();
+        if (AccessTracker.isHot(websafeConferenceKey)) {
+            CACHE.put(websafeConferenceKey, conference.copy());
+        }
+    }
+
+    /**
+     * Drops the cached Conference after it changed.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     */
+    public static void invalidate(String websafeConferenceKey) {
+        CACHE.invalidate(websafeConferenceKey);
+    }
+}
@@ -0,0 +1,91 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A count-min sketch: approximate per-key counts in a fixed amount of memory.
+ *
+ * Estimates never undercount and overcount by at most a small fraction of the total count.
+ * All operations are lock-free. {@link #decay()} halves every counter, which turns the counts
+ * into an exponentially weighted recent history when it is called periodically. Each row
+ * hashes the key with its own seed, so keys that collide in one row rarely collide in all.
+ */
+public class CountMinSketch {
+
+    private final int depth;
+
+    private final int width;
+
+    private final AtomicLongArray counters;
+
+    private final HashFunction[] hashFunctions;
+
+    /**
+     * @param depth the number of hash rows, more rows lower the chance of a bad estimate.
+     * @param width the number of counters per row, a power of two. Wider rows overcount less.
+     */
+    public CountMinSketch(int depth, int width) {
+        if (Integer.bitCount(width) != 1) {
+            throw new IllegalArgumentException("width must be a power of two: " + width);
+        }
+        this.depth = depth;
+        this.width = width;
+        this.counters = new AtomicLongArray(depth * width);
+        this.hashFunctions = new HashFunction[depth];
+        for (int row = 0; row < depth; row++) {
+            hashFunctions[row] = Hashing.murmur3_128(row);
+        }
+    }
+
+    /**
+     * Adds one occurrence of the key.
+     *
+     * @param key the key seen.
+     * @return the estimated count of the key including this occurrence.
+     */
+    public long add(String key) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters.incrementAndGet(index(row, key)));
+        }
+        return estimate;
+    }
+
+    /**
+     * Returns the estimated count of the key.
+     *
+     * @param key the key to look up.
+     * @return the estimated count, never less than the real count since the last decays.
+     */
+    public long estimate(String key) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters.get(index(row, key)));
+        }
+        return estimate;
+    }
+
+    /**
+     * Halves all counters. Concurrent adds may be halved or not, which only blurs the estimates.
+     */
+    public void decay() {
+        for (int i = 0; i < counters.length(); i++) {
+            long value;
+            do {
+                value = counters.get(i);
+            } while (value > 0 && !counters.compareAndSet(i, value, value >> 1));
+        }
+    }
+
+    /**
+     * Returns the position of the key's counter in a row.
+     */
+    private int index(int row, String key) {
+        long hash = hashFunctions[row].hashString(key, Charsets.UTF_8).asLong();
+        return row * width + (int) (hash & (width - 1));
+    }
+}
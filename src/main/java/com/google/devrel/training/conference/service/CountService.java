@@ -0,0 +1,64 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.RepositoryService.repository;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.devrel.training.conference.domain.ConferenceCount;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+
+/**
+ * Counts the Conferences matching a ConferenceQueryForm at a bounded cost.
+ *
+ * Counting stops at MAX_COUNT matches, so a count never costs more than that many small
+ * keys-only operations. Counts are cached in memcache per filter shape for a short time, which
+ * makes the common badges ("N conferences found") nearly free and at most TTL_SECONDS stale.
+ * A form that includes the archive also counts the archived Conferences it matches.
+ */
+public class CountService {
+
+    /**
+     * The largest count reported exactly.
+     */
+    public static final int MAX_COUNT = 10000;
+
+    private static final int TTL_SECONDS = 30;
+
+    private static final String KEY_PREFIX = "COUNT:";
+
+    private CountService() {}
+
+    /**
+     * Returns the number of Conferences matching the query form, capped at MAX_COUNT.
+     *
+     * @param conferenceQueryForm the query options.
+     * @return a ConferenceCount.
+     */
+    public static ConferenceCount count(ConferenceQueryForm conferenceQueryForm) {
+        String cacheKey = KEY_PREFIX + conferenceQueryForm.toCacheKey();
+        Integer cached = (Integer) memcache().get(cacheKey);
+        int count;
+        if (cached != null) {
+            Metrics.increment("countCache.hit");
+            count = cached;
+        } else {
+            Metrics.increment("countCache.miss");
+            // Counting one past the cap tells a capped count from an exact one.
+            count = repository().countConferences(conferenceQueryForm, MAX_COUNT + 1);
+            if (conferenceQueryForm.isIncludeArchived() && count <= MAX_COUNT) {
+                // The archive has no count query, its matches are counted by the same bounded
+                // scan that the history search runs.
+                count += repository().queryArchivedConferences(conferenceQueryForm,
+                        MAX_COUNT + 1 - count).size();
+            }
+            memcache().put(cacheKey, count, Expiration.byDeltaSeconds(TTL_SECONDS));
+        }
+        return count > MAX_COUNT ? new ConferenceCount(MAX_COUNT, true)
+                : new ConferenceCount(count, false);
+    }
+
+    private static MemcacheService memcache() {
+        return MemcacheServiceFactory.getMemcacheService();
+    }
+}
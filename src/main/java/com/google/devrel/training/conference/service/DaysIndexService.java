@@ -0,0 +1,88 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.RepositoryService.repository;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.devrel.training.conference.repository.ConferencePage;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Fills the days index of the Conferences stored before it existed, so that date range
+ * queries find them.
+ *
+ * The IndexConferenceDaysServlet cron job scans all Conferences in key order in batches of
+ * BATCH_SIZE with a query cursor, and saves again those without a days index. The cursor is
+ * kept in memcache after every batch, so a run that hits its time budget or dies is resumed
+ * by the next one. Once a scan completes, a marker in memcache makes later runs return at
+ * once, since new Conferences are always indexed when saved. Indexing a Conference twice is
+ * harmless, so a lost cursor or marker only costs a rescan.
+ */
+public class DaysIndexService {
+
+    private static final Logger LOG = Logger.getLogger(DaysIndexService.class.getName());
+
+    private static final int BATCH_SIZE = 100;
+
+    /**
+     * How long a run indexes before it leaves the rest to the next run.
+     */
+    private static final long BUDGET_MILLIS = 5 * 60 * 1000;
+
+    private static final String CURSOR_KEY = "DAYS_INDEX_CURSOR";
+
+    private static final String DONE_KEY = "DAYS_INDEX_DONE";
+
+    private static final int CURSOR_TTL_SECONDS = 24 * 60 * 60;
+
+    private DaysIndexService() {}
+
+    /**
+     * Indexes the days of the Conferences stored without them, until done or out of time.
+     *
+     * @return the number of Conferences indexed.
+     */
+    public static int backfill() {
+        if (memcache().contains(DONE_KEY)) {
+            return 0;
+        }
+        long start = System.currentTimeMillis();
+        String cursor = (String) memcache().get(CURSOR_KEY);
+        int indexed = 0;
+        int batches = 0;
+        while (System.currentTimeMillis() - start < BUDGET_MILLIS) {
+            ConferencePage page;
+            try {
+                page = repository().indexConferenceDays(cursor, BATCH_SIZE);
+            } catch (IllegalArgumentException e) {
+                if (cursor == null) {
+                    throw e;
+                }
+                LOG.log(Level.WARNING, "Restarting the days index backfill", e);
+                memcache().delete(CURSOR_KEY);
+                cursor = null;
+                continue;
+            }
+            indexed += page.getConferences().size();
+            batches++;
+            cursor = page.getCursor();
+            if (cursor == null) {
+                memcache().delete(CURSOR_KEY);
+                memcache().put(DONE_KEY, Boolean.TRUE);
+                break;
+            }
+            memcache().put(CURSOR_KEY, cursor, Expiration.byDeltaSeconds(CURSOR_TTL_SECONDS));
+        }
+        Metrics.add("daysIndex.backfilled", indexed);
+        LOG.info("Indexed the days of " + indexed + " conferences in " + batches + " batches, "
+                + (cursor == null ? "done" : "to be continued"));
+        return indexed;
+    }
+
+    private static MemcacheService memcache() {
+        return MemcacheServiceFactory.getMemcacheService();
+    }
+}
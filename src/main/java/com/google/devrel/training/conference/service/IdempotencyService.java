@@ -0,0 +1,195 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.RepositoryService.repository;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.devrel.training.conference.domain.IdempotencyRecord;
+
+import java.util.Date;
+import java.util.logging.Logger;
+
+/**
+ * Remembers the outcomes of requests that carry a client idempotency key, so that a retry
+ * returns the outcome of the first attempt instead of running the operation again.
+ *
+ * A request claims its key with an add-only memcache put before it starts its transaction.
+ * The first request to claim a key runs the operation and stores its outcome for TTL_SECONDS.
+ * A retry finds either that outcome, or the PENDING marker of an attempt still running. Only
+ * successful outcomes are stored: a failed attempt releases its key, so a retry runs again.
+ *
+ * Memcache is only the front of the retry path. The operation also writes an
+ * IdempotencyRecord with the id of the Claim in its own transaction, so a retry whose memcache
+ * entry was evicted, or that ran while memcache was failing, finds the outcome there instead
+ * of running the operation twice. Records are replayed for IdempotencyRecord.TTL_MILLIS, and
+ * the DeleteIdempotencyRecordsServlet cron job deletes them once they have expired.
+ *
+ * Keys are scoped by the operation and the user, so clients only need them to be unique per
+ * user. Keys are never required, a request without one simply runs.
+ */
+public class IdempotencyService {
+
+    private static final Logger LOG = Logger.getLogger(IdempotencyService.class.getName());
+
+    /**
+     * The longest idempotency key accepted, well within the memcache key limit.
+     */
+    public static final int MAX_KEY_LENGTH = 64;
+
+    /**
+     * How long an outcome is replayed from memcache, as long as from its IdempotencyRecord.
+     */
+    private static final int TTL_SECONDS = (int) (IdempotencyRecord.TTL_MILLIS / 1000);
+
+    /**
+     * Expired records deleted per batch by the cron job.
+     */
+    private static final int DELETE_BATCH = 500;
+
+    /**
+     * How long a run deletes before it leaves the rest to the next run.
+     */
+    private static final long BUDGET_MILLIS = 5 * 60 * 1000;
+
+    /**
+     * How long a claim blocks retries when its request dies before it completes or releases.
+     */
+    private static final int PENDING_TTL_SECONDS = 60;
+
+    private static final String KEY_PREFIX = "IDEMPOTENCY:";
+
+    private static final String PENDING = "PENDING";
+
+    private IdempotencyService() {}
+
+    /**
+     * The result of claiming an idempotency key.
+     */
+    public static class Claim {
+        private final String cacheKey;
+        private final String recordId;
+        private final String outcome;
+        private final boolean acquired;
+
+        private Claim(String cacheKey, String recordId, String outcome, boolean acquired) {
+            this.cacheKey = cacheKey;
+            this.recordId = recordId;
+            this.outcome = outcome;
+            this.acquired = acquired;
+        }
+
+        /**
+         * Returns the id of the IdempotencyRecord the operation stores with its outcome.
+         * @return the id, or null when the request carries no idempotency key.
+         */
+        public String getRecordId() {
+            return recordId;
+        }
+
+        /**
+         * Returns whether this request is to run the operation.
+         * @return true for the first request with the key, or a request without one.
+         */
+        public boolean isAcquired() {
+            return acquired;
+        }
+
+        /**
+         * Returns the outcome stored by the request that ran the operation.
+         * @return the outcome, or null when that request has not completed yet.
+         */
+        public String getOutcome() {
+            return outcome;
+        }
+    }
+
+    /**
+     * Claims an idempotency key before running an operation.
+     *
+     * @param scope the operation, and whatever else the outcome depends on.
+     * @param userId the id of the user making the request.
+     * @param idempotencyKey the key sent by the client, or null when it sent none.
+     * @return a Claim, acquired unless an earlier request with the key completed or is running.
+     * @throws IllegalArgumentException when the key is longer than MAX_KEY_LENGTH.
+     */
+    public static Claim claim(String scope, String userId, String idempotencyKey) {
+        if (idempotencyKey == null || idempotencyKey.isEmpty()) {
+            return new Claim(null, null, null, true);
+        }
+        if (idempotencyKey.length() > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("The idempotency key is longer than "
+                    + MAX_KEY_LENGTH + " characters");
+        }
+        String recordId = scope + ":" + idempotencyKey;
+        String cacheKey = KEY_PREFIX + userId + ":" + recordId;
+        Object stored = memcache().get(cacheKey);
+        if (stored == null) {
+            if (memcache().put(cacheKey, PENDING, Expiration.byDeltaSeconds(PENDING_TTL_SECONDS),
+                    SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+                Metrics.increment("idempotency.claimed");
+                return new Claim(cacheKey, recordId, null, true);
+            }
+            stored = memcache().get(cacheKey);
+            if (stored == null) {
+                // Memcache is failing, so only the IdempotencyRecord guards the operation.
+                Metrics.increment("idempotency.unavailable");
+                return new Claim(null, recordId, null, true);
+            }
+        }
+        if (PENDING.equals(stored)) {
+            Metrics.increment("idempotency.inProgress");
+            return new Claim(null, recordId, null, false);
+        }
+        Metrics.increment("idempotency.replayed");
+        return new Claim(null, recordId, (String) stored, false);
+    }
+
+    /**
+     * Stores the outcome of the operation in memcache, to be replayed to retries. The
+     * operation has stored its IdempotencyRecord already.
+     *
+     * @param claim the acquired Claim of the request.
+     * @param outcome the outcome of the operation.
+     */
+    public static void complete(Claim claim, String outcome) {
+        if (claim.cacheKey != null) {
+            memcache().put(claim.cacheKey, outcome, Expiration.byDeltaSeconds(TTL_SECONDS));
+        }
+    }
+
+    /**
+     * Releases the key after the operation failed, so that a retry runs it again.
+     *
+     * @param claim the acquired Claim of the request.
+     */
+    public static void release(Claim claim) {
+        if (claim.cacheKey != null) {
+            memcache().delete(claim.cacheKey);
+        }
+    }
+
+    /**
+     * Deletes the expired IdempotencyRecords, in batches, until none are left or out of time.
+     *
+     * @return the number of records deleted.
+     */
+    public static int deleteExpiredRecords() {
+        long start = System.currentTimeMillis();
+        Date before = new Date(start - IdempotencyRecord.TTL_MILLIS);
+        int deleted = 0;
+        int batch;
+        do {
+            batch = repository().deleteIdempotencyRecordsCreatedBefore(before, DELETE_BATCH);
+            deleted += batch;
+        } while (batch == DELETE_BATCH && System.currentTimeMillis() - start < BUDGET_MILLIS);
+        Metrics.add("idempotency.recordsDeleted", deleted);
+        LOG.info("Deleted " + deleted + " expired idempotency records");
+        return deleted;
+    }
+
+    private static MemcacheService memcache() {
+        return MemcacheServiceFactory.getMemcacheService();
+    }
+}
@@ -0,0 +1,72 @@
+package com.google.devrel.training.conference.service;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide named counters for this instance.
+ *
+ * Counters are created on first use and never reset, so the values are totals since the
+ * instance started. They are exposed to administrators through the MetricsServlet.
+ */
+public class Metrics {
+
+    private static final ConcurrentMap<String, AtomicLong> COUNTERS =
+            new ConcurrentHashMap<>();
+
+    private Metrics() {}
+
+    /**
+     * Adds one to the named counter.
+     *
+     * @param name the name of the counter.
+     */
+    public static void increment(String name) {
+        add(name, 1);
+    }
+
+    /**
+     * Adds the given delta to the named counter.
+     *
+     * @param name the name of the counter.
+     * @param delta the amount to add.
+     */
+    public static void add(String name, long delta) {
+        AtomicLong counter = COUNTERS.get(name);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = COUNTERS.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        counter.addAndGet(delta);
+    }
+
+    /**
+     * Returns the current value of the named counter.
+     *
+     * @param name the name of the counter.
+     * @return the value of the counter, 0 if it was never incremented.
+     */
+    public static long get(String name) {
+        AtomicLong counter = COUNTERS.get(name);
+        return counter == null ? 0 : counter.get();
+    }
+
+    /**
+     * Returns a copy of all counters sorted by name.
+     *
+     * @return a Map from counter name to its current value.
+     */
+    public static Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : COUNTERS.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        return snapshot;
+    }
+}
@@ -1,7 +1,13 @@
 package com.google.devrel.training.conference.service;
 
+import com.google.devrel.training.conference.domain.ArchivedConference;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceSeats;
+import com.google.devrel.training.conference.domain.ConferenceTombstone;
+import com.google.devrel.training.conference.domain.IdempotencyRecord;
 import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Recommendation;
+import com.google.devrel.training.conference.domain.SeatHold;
 import com.googlecode.objectify.Objectify;
 import com.googlecode.objectify.ObjectifyFactory;
 import com.googlecode.objectify.ObjectifyService;
@@ -16,6 +22,12 @@ public class OfyService {
     static {
         factory().register(Profile.class);
         factory().register(Conference.class);
+        factory().register(ConferenceSeats.class);
+        factory().register(ArchivedConference.class);
+        factory().register(ConferenceTombstone.class);
+        factory().register(Recommendation.class);
+        factory().register(SeatHold.class);
+        factory().register(IdempotencyRecord.class);
     }
 
     /**
@@ -0,0 +1,399 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.RepositoryService.repository;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.common.collect.Ordering;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Recommendation;
+import com.google.devrel.training.conference.domain.Recommendation.Item;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Field;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Filter;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Operator;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Computes the Conferences recommended to each user from the Conferences the user attends.
+ *
+ * A Conference scores for every topic and city it shares with the Conferences the user
+ * attends, and for every co-attendee, someone attending one of the same Conferences, who
+ * attends it too. Conferences the user attends, sold out ones and past ones are not
+ * recommended.
+ *
+ * The BuildRecommendationsServlet cron job rebuilds the recommendations of all users: it loads
+ * the catalog and the Profiles once, scores the users in batches of BATCH_SIZE on a small
+ * pool of request threads and saves one Recommendation per user. The sandbox only lets a
+ * request start threads through ThreadManager, and those cannot outlive the request, so the
+ * pool is created by every rebuild and shut down before it returns.
+ *
+ * A registration enqueues a task that refreshes the user's Recommendation from the
+ * Conferences sharing a topic or the city with the new one, so the registration does not wait
+ * for it; co-attendance is only counted by the next rebuild.
+ */
+public class RecommendationService {
+
+    private static final Logger LOG = Logger.getLogger(RecommendationService.class.getName());
+
+    /**
+     * The most Conferences recommended to a user.
+     */
+    public static final int MAX_ITEMS = 10;
+
+    private static final int TOPIC_WEIGHT = 1;
+
+    private static final int CITY_WEIGHT = 2;
+
+    private static final int CO_ATTENDEE_WEIGHT = 3;
+
+    /**
+     * Co-attendees counted per attended Conference, so that large Conferences stay cheap.
+     */
+    private static final int MAX_CO_ATTENDEES = 200;
+
+    /**
+     * Users scored per task of a rebuild.
+     */
+    private static final int BATCH_SIZE = 100;
+
+    /**
+     * Threads scoring the users during a rebuild, well below the request thread limit.
+     */
+    private static final int THREADS = 4;
+
+    private static final String REFRESH_URL = "/tasks/refresh_recommendation";
+
+    /**
+     * Topics of the new Conference queried on a refresh, leaving one sub-query for the city.
+     */
+    private static final int MAX_REFRESH_TOPICS = ConferenceQueryForm.MAX_BRANCHES - 1;
+
+    private static final int REFRESH_CANDIDATES = 100;
+
+    private static final Comparator<Item> BY_SCORE = new Comparator<Item>() {
+        @Override
+        public int compare(Item left, Item right) {
+            int result = Integer.compare(right.getScore(), left.getScore());
+            return result != 0 ? result
+                    : left.getWebsafeConferenceKey().compareTo(right.getWebsafeConferenceKey());
+        }
+    };
+
+    private RecommendationService() {}
+
+    /**
+     * Returns the precomputed recommendations of the given user.
+     *
+     * @param userId the id of the user.
+     * @return the Recommendation, or null when none has been computed yet.
+     */
+    public static Recommendation getRecommendation(String userId) {
+        return repository().loadRecommendation(userId);
+    }
+
+    /**
+     * Recomputes and saves the recommendations of every user who attends a Conference.
+     *
+     * @return the number of Recommendations saved.
+     */
+    public static int rebuildAll() {
+        long start = System.currentTimeMillis();
+        List<Conference> conferences = repository().getAllConferences();
+        List<Profile> profiles = repository().getAllProfiles();
+        Model model = new Model(conferences, profiles, new Date(start));
+        List<Recommendation> recommendations = score(model, profiles);
+        repository().saveRecommendations(recommendations);
+        Metrics.add("recommendation.rebuilt", recommendations.size());
+        LOG.info("Rebuilt " + recommendations.size() + " recommendations from "
+                + conferences.size() + " conferences and " + profiles.size() + " profiles in "
+                + (System.currentTimeMillis() - start) + " ms");
+        return recommendations.size();
+    }
+
+    /**
+     * Scores the users in batches on a pool of request threads.
+     */
+    private static List<Recommendation> score(Model model, List<Profile> profiles) {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS,
+                ThreadManager.currentRequestThreadFactory());
+        try {
+            List<Future<List<Recommendation>>> batches = new ArrayList<>();
+            for (int from = 0; from < profiles.size(); from += BATCH_SIZE) {
+                batches.add(pool.submit(new ScoreTask(model,
+                        profiles.subList(from, Math.min(from + BATCH_SIZE, profiles.size())))));
+            }
+            List<Recommendation> recommendations = new ArrayList<>(profiles.size());
+            for (Future<List<Recommendation>> batch : batches) {
+                recommendations.addAll(batch.get());
+            }
+            return recommendations;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while scoring recommendations", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not score recommendations", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Enqueues a refresh of the recommendations of a user who just registered for a
+     * Conference. Failures are logged, the registration has succeeded regardless and the next
+     * rebuild catches up.
+     *
+     * @param userId the id of the user.
+     * @param websafeConferenceKey The String representation of the new Conference Key.
+     */
+    public static void enqueueRefresh(String userId, String websafeConferenceKey) {
+        try {
+            QueueFactory.getDefaultQueue().add(TaskOptions.Builder.withUrl(REFRESH_URL)
+                    .param("userId", userId)
+                    .param("websafeConferenceKey", websafeConferenceKey));
+            Metrics.increment("recommendation.refreshEnqueued");
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Could not enqueue a recommendation refresh for " + userId, e);
+        }
+    }
+
+    /**
+     * Refreshes the recommendations of a user who just registered for a Conference. It is run
+     * by the task enqueued by {@link #enqueueRefresh}. Failures are logged, the registration
+     * has succeeded regardless.
+     *
+     * @param userId the id of the user.
+     * @param websafeConferenceKey The String representation of the new Conference Key.
+     */
+    public static void refresh(String userId, String websafeConferenceKey) {
+        try {
+            Profile profile = repository().loadProfile(userId);
+            Conference registered = repository().loadConference(websafeConferenceKey);
+            if (profile == null || registered == null) {
+                return;
+            }
+            List<String> attended = profile.getConferenceKeysToAttend();
+            List<Item> carried = new ArrayList<>(0);
+            Recommendation current = repository().loadRecommendation(userId);
+            if (current != null) {
+                for (Item item : current.getItems()) {
+                    if (!attended.contains(item.getWebsafeConferenceKey())) {
+                        carried.add(item);
+                    }
+                }
+            }
+            // The carried over Conferences are reloaded with the attended ones in one batch,
+            // so that those sold out or over since the last rebuild are dropped below.
+            List<String> keys = new ArrayList<>(attended);
+            for (Item item : carried) {
+                keys.add(item.getWebsafeConferenceKey());
+            }
+            List<Conference> conferences = new ArrayList<>(repository().loadConferences(keys));
+            conferences.addAll(repository().queryConferences(candidates(registered)));
+            Model model = new Model(conferences, Collections.<Profile>emptyList(), new Date());
+
+            Map<String, Item> items = new HashMap<>();
+            for (Item item : carried) {
+                if (model.recommendable.contains(item.getWebsafeConferenceKey())) {
+                    items.put(item.getWebsafeConferenceKey(), item);
+                }
+            }
+            for (Item item : model.recommend(userId, attended)) {
+                Item known = items.get(item.getWebsafeConferenceKey());
+                if (known == null || known.getScore() < item.getScore()) {
+                    items.put(item.getWebsafeConferenceKey(), item);
+                }
+            }
+            repository().saveRecommendations(Collections.singletonList(
+                    new Recommendation(userId, top(items.values()), new Date())));
+            Metrics.increment("recommendation.refreshed");
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Could not refresh the recommendations of " + userId, e);
+        }
+    }
+
+    /**
+     * Returns a query for Conferences sharing a topic or the city with the given one.
+     */
+    private static ConferenceQueryForm candidates(Conference conference) {
+        ConferenceQueryForm form = new ConferenceQueryForm().pageSize(REFRESH_CANDIDATES);
+        List<String> topics = conference.getTopics();
+        if (topics != null && !topics.isEmpty()) {
+            form.orFilter(new Filter(Field.TOPIC,
+                    topics.subList(0, Math.min(topics.size(), MAX_REFRESH_TOPICS))));
+        }
+        if (conference.getCity() != null) {
+            form.orFilter(new Filter(Field.CITY, Operator.EQ, conference.getCity()));
+        }
+        return form;
+    }
+
+    private static List<Item> top(Collection<Item> items) {
+        return Ordering.from(BY_SCORE).leastOf(items, MAX_ITEMS);
+    }
+
+    /**
+     * Scores a batch of users.
+     */
+    private static class ScoreTask implements Callable<List<Recommendation>> {
+        private final Model model;
+        private final List<Profile> profiles;
+
+        ScoreTask(Model model, List<Profile> profiles) {
+            this.model = model;
+            this.profiles = profiles;
+        }
+
+        @Override
+        public List<Recommendation> call() {
+            List<Recommendation> result = new ArrayList<>(0);
+            for (Profile profile : profiles) {
+                List<String> attended = profile.getConferenceKeysToAttend();
+                if (!attended.isEmpty()) {
+                    result.add(new Recommendation(profile.getUserId(),
+                            top(model.recommend(profile.getUserId(), attended)), model.now));
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Read-only indexes over the Conferences and the attendance, shared by the scoring tasks.
+     */
+    private static class Model {
+        private final Date now;
+        private final Map<String, Conference> conferences = new HashMap<>();
+        private final Set<String> recommendable = new HashSet<>();
+        private final Map<String, List<String>> byTopic = new HashMap<>();
+        private final Map<String, List<String>> byCity = new HashMap<>();
+        private final Map<String, List<String>> attendees = new HashMap<>();
+        private final Map<String, List<String>> attending = new HashMap<>();
+
+        Model(List<Conference> conferenceList, List<Profile> profiles, Date now) {
+            this.now = now;
+            for (Conference conference : conferenceList) {
+                String key = conference.getWebsafeKey();
+                if (conferences.put(key, conference) != null || !isRecommendable(conference)) {
+                    continue;
+                }
+                recommendable.add(key);
+                if (conference.getTopics() != null) {
+                    for (String topic : conference.getTopics()) {
+                        index(byTopic, topic, key);
+                    }
+                }
+                if (conference.getCity() != null) {
+                    index(byCity, conference.getCity(), key);
+                }
+            }
+            for (Profile profile : profiles) {
+                List<String> attended = profile.getConferenceKeysToAttend();
+                attending.put(profile.getUserId(), attended);
+                for (String key : attended) {
+                    List<String> userIds = attendees.get(key);
+                    if (userIds == null || userIds.size() < MAX_CO_ATTENDEES) {
+                        index(attendees, key, profile.getUserId());
+                    }
+                }
+            }
+        }
+
+        private boolean isRecommendable(Conference conference) {
+            Date endDate = conference.getEndDate();
+            return conference.getSeatsAvailable() > 0 && (endDate == null || endDate.after(now));
+        }
+
+        private static void index(Map<String, List<String>> index, String value, String key) {
+            List<String> keys = index.get(value);
+            if (keys == null) {
+                keys = new ArrayList<>(1);
+                index.put(value, keys);
+            }
+            keys.add(key);
+        }
+
+        /**
+         * Scores the Conferences related to the ones the user attends.
+         *
+         * @return an Item for every Conference with a positive score, in no particular order.
+         */
+        List<Item> recommend(String userId, List<String> attended) {
+            Map<String, Integer> topics = new HashMap<>();
+            Map<String, Integer> cities = new HashMap<>();
+            for (String key : attended) {
+                Conference conference = conferences.get(key);
+                if (conference == null) {
+                    continue;
+                }
+                if (conference.getTopics() != null) {
+                    for (String topic : conference.getTopics()) {
+                        add(topics, topic, 1);
+                    }
+                }
+                if (conference.getCity() != null) {
+                    add(cities, conference.getCity(), 1);
+                }
+            }
+            Map<String, Integer> scores = new LinkedHashMap<>();
+            for (Map.Entry<String, Integer> topic : topics.entrySet()) {
+                addAll(scores, byTopic.get(topic.getKey()), topic.getValue() * TOPIC_WEIGHT);
+            }
+            for (Map.Entry<String, Integer> city : cities.entrySet()) {
+                addAll(scores, byCity.get(city.getKey()), city.getValue() * CITY_WEIGHT);
+            }
+            for (String key : attended) {
+                List<String> coAttendees = attendees.get(key);
+                if (coAttendees == null) {
+                    continue;
+                }
+                for (String coAttendee : coAttendees) {
+                    if (!coAttendee.equals(userId)) {
+                        addAll(scores, attending.get(coAttendee), CO_ATTENDEE_WEIGHT);
+                    }
+                }
+            }
+            List<Item> items = new ArrayList<>(0);
+            for (Map.Entry<String, Integer> score : scores.entrySet()) {
+                String key = score.getKey();
+                if (recommendable.contains(key) && !attended.contains(key)) {
+                    items.add(new Item(conferences.get(key), score.getValue()));
+                }
+            }
+            return items;
+        }
+
+        private static void add(Map<String, Integer> counts, String key, int delta) {
+            Integer count = counts.get(key);
+            counts.put(key, count == null ? delta : count + delta);
+        }
+
+        private static void addAll(Map<String, Integer> counts, List<String> keys, int delta) {
+            if (keys != null) {
+                for (String key : keys) {
+                    add(counts, key, delta);
+                }
+            }
+        }
+    }
+}
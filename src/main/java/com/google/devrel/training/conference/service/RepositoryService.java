@@ -0,0 +1,46 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.devrel.training.conference.repository.ConferenceRepository;
+import com.google.devrel.training.conference.repository.InMemoryConferenceRepository;
+import com.google.devrel.training.conference.repository.OfyConferenceRepository;
+
+/**
+ * Holds the ConferenceRepository that this application should use.
+ *
+ * The backend is chosen by the "conference.repository" system property set in
+ * appengine-web.xml: "datastore" (the default) or "memory".
+ */
+public class RepositoryService {
+
+    public static final String REPOSITORY_PROPERTY = "conference.repository";
+
+    private static volatile ConferenceRepository repository =
+            create(System.getProperty(REPOSITORY_PROPERTY, "datastore"));
+
+    private RepositoryService() {}
+
+    /**
+     * Use this static method for getting the configured repository.
+     * @return the ConferenceRepository.
+     */
+    public static ConferenceRepository repository() {
+        return repository;
+    }
+
+    /**
+     * Replaces the repository, for benchmarks that drive the API against their own backend.
+     * @param conferenceRepository the ConferenceRepository to use from now on.
+     */
+    public static void setRepository(ConferenceRepository conferenceRepository) {
+        repository = conferenceRepository;
+    }
+
+    private static ConferenceRepository create(String backend) {
+        if ("memory".equals(backend)) {
+            return new InMemoryConferenceRepository();
+        } else if ("datastore".equals(backend)) {
+            return new OfyConferenceRepository();
+        }
+        throw new IllegalArgumentException("Unknown " + REPOSITORY_PROPERTY + ": " + backend);
+    }
+}
@@ -0,0 +1,218 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.RepositoryService.repository;
+
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.SeatUpdate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process fan-out of seat count changes to long-polling clients.
+ *
+ * Clients watching a Conference wait on one channel per Conference until its seat count moves
+ * past the version they last saw. Registrations on this instance publish the new count as
+ * soon as the transaction commits. Changes made on other instances are picked up by one of
+ * the waiting requests, which reads the Conference every REFRESH_MILLIS on behalf of all the
+ * others, so the datastore sees one read per instance and interval however many viewers there
+ * are.
+ *
+ * Versions are the times the changes were seen in milliseconds since the epoch, so they are
+ * comparable across instances. A change always moves the version forward, even when the
+ * clocks of two instances disagree. A refresh stamps the count it reads with the time the read
+ * started, and reads past the in-process caches, so its count is at least as new as that time.
+ * A count whose read started before the latest published change is dropped: it may predate
+ * that change, and would move the count back.
+ *
+ * Only keys of Conferences get a channel, and at most MAX_CHANNELS channels are kept.
+ */
+public class SeatFeedHub {
+
+    /**
+     * How long a watch waits for a change before it returns the current count.
+     */
+    public static final long MAX_WAIT_MILLIS = 25 * 1000;
+
+    private static final long REFRESH_MILLIS = 5 * 1000;
+
+    private static final int MAX_CHANNELS = 10000;
+
+    private static final LoadingCache<String, Channel> CHANNELS = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CHANNELS)
+            .expireAfterAccess(10, TimeUnit.MINUTES)
+            .build(new CacheLoader<String, Channel>() {
+                @Override
+                public Channel load(String websafeConferenceKey) {
+                    return new Channel();
+                }
+            });
+
+    private SeatFeedHub() {}
+
+    /**
+     * Publishes the seats available after a committed change, if anyone is watching.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param seatsAvailable the number of seats available after the change.
+     * @param version the time of the change in milliseconds since the epoch.
+     */
+    public static void publish(String websafeConferenceKey, int seatsAvailable, long version) {
+        Channel channel = CHANNELS.getIfPresent(websafeConferenceKey);
+        if (channel != null) {
+            channel.publish(seatsAvailable, version);
+        }
+    }
+
+    /**
+     * Waits up to MAX_WAIT_MILLIS for the seat count to change after the given version.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param sinceVersion the version the client last saw, 0 for none.
+     * @return the latest SeatUpdate, with the same version when nothing changed in time, or
+     *         null when there is no such Conference.
+     */
+    public static SeatUpdate watch(String websafeConferenceKey, long sinceVersion) {
+        if (!isConferenceKey(websafeConferenceKey)) {
+            Metrics.increment("seatFeed.badKey");
+            return null;
+        }
+        Metrics.increment("seatFeed.watch");
+        Channel channel = CHANNELS.getUnchecked(websafeConferenceKey);
+        long deadline = System.currentTimeMillis() + MAX_WAIT_MILLIS;
+        while (true) {
+            long now = System.currentTimeMillis();
+            if (channel.claimRefresh(now)) {
+                try {
+                    refresh(websafeConferenceKey, channel);
+                } finally {
+                    channel.refreshed(System.currentTimeMillis());
+                }
+            }
+            now = System.currentTimeMillis();
+            boolean changed = channel.await(sinceVersion, Math.min(deadline, now + REFRESH_MILLIS));
+            if (changed || System.currentTimeMillis() >= deadline
+                    || Thread.currentThread().isInterrupted()) {
+                return channel.update(websafeConferenceKey);
+            }
+        }
+    }
+
+    /**
+     * Returns whether the string is the websafe key of a Conference, so that made up keys do
+     * not take a channel or a gate.
+     */
+    static boolean isConferenceKey(String websafeConferenceKey) {
+        try {
+            return KeyFactory.stringToKey(websafeConferenceKey).getKind()
+                    .equals(Conference.class.getSimpleName());
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static void refresh(String websafeConferenceKey, Channel channel) {
+        Metrics.increment("seatFeed.refresh");
+        long readStart = System.currentTimeMillis();
+        int seatsAvailable = repository().loadSeatsAvailable(websafeConferenceKey);
+        if (seatsAvailable < 0) {
+            channel.notFound();
+            // The waiters hold on to the channel, new watches need not find it.
+            CHANNELS.invalidate(websafeConferenceKey);
+            return;
+        }
+        channel.publishRead(seatsAvailable, readStart);
+    }
+
+    /**
+     * The latest seat count of a Conference and the requests waiting for it to change.
+     */
+    private static class Channel {
+        private int seatsAvailable = -1;
+        private long version;
+        /**
+         * When the latest change was published, by the clock of this instance.
+         */
+        private long lastPublished;
+        private boolean notFound;
+        private int waiters;
+        private boolean refreshing;
+        private long lastRefresh;
+
+        synchronized void publish(int seatsAvailable, long version) {
+            if (seatsAvailable == this.seatsAvailable) {
+                return;
+            }
+            this.lastPublished = Math.max(lastPublished, version);
+            this.seatsAvailable = seatsAvailable;
+            this.version = Math.max(version, this.version + 1);
+            notifyAll();
+            Metrics.increment("seatFeed.published");
+            Metrics.add("seatFeed.notified", waiters);
+        }
+
+        /**
+         * Publishes a count read from the datastore, unless a change was published after the
+         * read started, in which case the count may predate it.
+         */
+        synchronized void publishRead(int seatsAvailable, long readStart) {
+            if (readStart <= lastPublished) {
+                Metrics.increment("seatFeed.staleRead");
+                return;
+            }
+            publish(seatsAvailable, readStart);
+        }
+
+        synchronized void notFound() {
+            notFound = true;
+            notifyAll();
+        }
+
+        /**
+         * Lets the caller read the Conference if no one did for REFRESH_MILLIS.
+         */
+        synchronized boolean claimRefresh(long now) {
+            if (refreshing || notFound || now - lastRefresh < REFRESH_MILLIS) {
+                return false;
+            }
+            refreshing = true;
+            return true;
+        }
+
+        synchronized void refreshed(long now) {
+            refreshing = false;
+            lastRefresh = now;
+        }
+
+        /**
+         * Waits until the version moves past sinceVersion or the time is up.
+         *
+         * @return whether the version moved, or the Conference turned out not to exist.
+         */
+        synchronized boolean await(long sinceVersion, long untilMillis) {
+            waiters++;
+            try {
+                long remaining = untilMillis - System.currentTimeMillis();
+                while (version <= sinceVersion && !notFound && remaining > 0) {
+                    wait(remaining);
+                    remaining = untilMillis - System.currentTimeMillis();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                waiters--;
+            }
+            return version > sinceVersion || notFound;
+        }
+
+        synchronized SeatUpdate update(String websafeConferenceKey) {
+            if (notFound || version == 0) {
+                return null;
+            }
+            return new SeatUpdate(websafeConferenceKey, seatsAvailable, version);
+        }
+    }
+}
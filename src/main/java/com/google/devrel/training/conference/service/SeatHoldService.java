@@ -0,0 +1,187 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.RepositoryService.repository;
+
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.repository.SeatResult;
+import com.google.devrel.training.conference.repository.SeatResult.Status;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Holds seats for users during checkout and gives back the seats of holds that expire.
+ *
+ * Expiries are tracked on a TimerWheel with one slot per TICK_MILLIS. Every hold made on this
+ * instance schedules its Conference on the wheel, and the wheel is advanced by the hold
+ * requests themselves and by the ReleaseExpiredHoldsServlet cron job. A Conference comes out
+ * of the wheel once however many of its holds expired in the same ticks, and all its expired
+ * holds are released in one transaction with one seat write, so a burst of abandoned checkouts
+ * costs one seat write per Conference and tick rather than one per hold. Each request releases
+ * one batch of holds on at most MAX_SWEEP_PER_REQUEST Conferences and puts the rest back on the
+ * wheel for the next tick, so a request never waits for a large release.
+ *
+ * The wheel only knows the holds made on this instance, so the cron job also queries the
+ * datastore for expired holds, which covers instances that shut down.
+ */
+public class SeatHoldService {
+
+    private static final Logger LOG = Logger.getLogger(SeatHoldService.class.getName());
+
+    /**
+     * How long a seat is held.
+     */
+    public static final long HOLD_MILLIS = 5 * 60 * 1000;
+
+    private static final long TICK_MILLIS = 5 * 1000;
+
+    /**
+     * Slots of the wheel, so that a hold is due within one turn.
+     */
+    private static final int SLOTS = (int) (HOLD_MILLIS / TICK_MILLIS) + 4;
+
+    private static final int MAX_SWEEP_PER_REQUEST = 2;
+
+    /**
+     * Holds released per transaction, well within the entity group write limits.
+     */
+    private static final int RELEASE_BATCH = 200;
+
+    /**
+     * Expired holds the cron job looks for in the datastore per run.
+     */
+    private static final int MAX_EXPIRED_SCAN = 1000;
+
+    private static final TimerWheel<String> WHEEL =
+            new TimerWheel<>(TICK_MILLIS, SLOTS, System.currentTimeMillis());
+
+    private SeatHoldService() {}
+
+    /**
+     * Holds a seat for the user for HOLD_MILLIS.
+     *
+     * @param userId the id of the user.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the SeatResult, HELD with the SeatHold when the user holds a seat.
+     */
+    public static SeatResult hold(String userId, String websafeConferenceKey) {
+        sweepDue(MAX_SWEEP_PER_REQUEST, 1);
+        SeatResult seatResult = repository().holdSeat(userId, websafeConferenceKey,
+                new Date(System.currentTimeMillis() + HOLD_MILLIS));
+        if (seatResult.getStatus() == Status.HELD) {
+            WHEEL.schedule(websafeConferenceKey, seatResult.getHold().getExpiresAt().getTime());
+            Metrics.increment("holds.held");
+        }
+        return seatResult;
+    }
+
+    /**
+     * Registers the user with the seat the user holds.
+     *
+     * @param defaultProfile the Profile to store when the user has none yet.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the SeatResult, REGISTERED when the hold was confirmed.
+     */
+    public static SeatResult confirm(Profile defaultProfile, String websafeConferenceKey) {
+        sweepDue(MAX_SWEEP_PER_REQUEST, 1);
+        SeatResult seatResult = repository().confirmHold(defaultProfile, websafeConferenceKey,
+                new Date());
+        if (seatResult.getStatus() == Status.REGISTERED) {
+            Metrics.increment("holds.confirmed");
+        }
+        return seatResult;
+    }
+
+    /**
+     * Gives back the seat the user holds.
+     *
+     * @param userId the id of the user.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the SeatResult, RELEASED when there was a hold.
+     */
+    public static SeatResult release(String userId, String websafeConferenceKey) {
+        sweepDue(MAX_SWEEP_PER_REQUEST, 1);
+        SeatResult seatResult = repository().releaseHold(userId, websafeConferenceKey);
+        if (seatResult.getStatus() == Status.RELEASED) {
+            Metrics.increment("holds.released");
+        }
+        return seatResult;
+    }
+
+    /**
+     * Releases all expired holds, those on the wheel of this instance first, then those the
+     * datastore still has.
+     *
+     * @return the number of holds released.
+     */
+    public static int releaseExpired() {
+        int released = sweepDue(Integer.MAX_VALUE, Integer.MAX_VALUE);
+        Date now = new Date();
+        List<String> websafeConferenceKeys =
+                repository().getConferencesWithExpiredHolds(now, MAX_EXPIRED_SCAN);
+        for (String websafeConferenceKey : websafeConferenceKeys) {
+            released += releaseExpiredHolds(websafeConferenceKey, now, Integer.MAX_VALUE);
+        }
+        LOG.info("Released " + released + " expired holds, " + WHEEL.size() + " still pending");
+        return released;
+    }
+
+    /**
+     * Releases the expired holds of the Conferences due on the wheel.
+     *
+     * @param maxConferences the most Conferences to release holds on, the others are put back.
+     * @param maxBatches the most transactions per Conference, see releaseExpiredHolds().
+     * @return the number of holds released.
+     */
+    private static int sweepDue(int maxConferences, int maxBatches) {
+        long now = System.currentTimeMillis();
+        Set<String> due = WHEEL.advance(now);
+        if (due.isEmpty()) {
+            return 0;
+        }
+        int released = 0;
+        int swept = 0;
+        for (String websafeConferenceKey : due) {
+            if (swept++ < maxConferences) {
+                released += releaseExpiredHolds(websafeConferenceKey, new Date(now), maxBatches);
+            } else {
+                WHEEL.schedule(websafeConferenceKey, now);
+            }
+        }
+        return released;
+    }
+
+    /**
+     * Releases the expired holds of a Conference in up to maxBatches transactions of
+     * RELEASE_BATCH holds. When holds may be left, the Conference is put back on the wheel for
+     * the next tick. Failures are logged, the holds stay in the datastore for the cron job.
+     */
+    private static int releaseExpiredHolds(String websafeConferenceKey, Date now,
+                                           int maxBatches) {
+        int released = 0;
+        try {
+            int batch;
+            int batches = 0;
+            do {
+                batch = repository().releaseExpiredHolds(websafeConferenceKey, now,
+                        RELEASE_BATCH);
+                released += batch;
+                Metrics.increment("holds.sweepTransactions");
+            } while (batch == RELEASE_BATCH && ++batches < maxBatches);
+            if (batch == RELEASE_BATCH) {
+                WHEEL.schedule(websafeConferenceKey, now.getTime());
+            }
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Could not release the expired holds of "
+                    + websafeConferenceKey, e);
+        }
+        // Seat feed watchers pick the seats up with their next refresh.
+        if (released > 0) {
+            Metrics.add("holds.expired", released);
+        }
+        return released;
+    }
+}
@@ -0,0 +1,52 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.RepositoryService.repository;
+
+import com.google.devrel.training.conference.domain.ConferenceSync;
+import com.google.devrel.training.conference.repository.ConferencePage;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Computes the changes to the Conference catalog since a client's watermark.
+ *
+ * Changed Conferences are found with a query on the indexed lastModified property, in
+ * lastModified order, so a Conference changed while a client pages through the delta moves to
+ * a later page instead of being missed. Seat counts that changed without changing their
+ * Conference follow on the later pages, see getConferencesChangedSince(). The returned
+ * watermark lies SLACK_MILLIS in the past, because the query is eventually consistent and
+ * instance clocks differ, so a client may get a Conference twice but never misses a change.
+ */
+public class SyncService {
+
+    /**
+     * The most changed Conferences returned per page.
+     */
+    public static final int PAGE_SIZE = 100;
+
+    private static final long SLACK_MILLIS = 30 * 1000;
+
+    private SyncService() {}
+
+    /**
+     * Returns one page of the changes since the watermark.
+     *
+     * @param watermark the watermark of the client's last sync, null for a full sync.
+     * @param cursor the cursor of the previous page, null for the first page.
+     * @return the ConferenceSync.
+     * @throws IllegalArgumentException when the cursor is not valid.
+     */
+    public static ConferenceSync sync(Long watermark, String cursor) {
+        long start = System.currentTimeMillis();
+        Date since = new Date(watermark == null ? 0 : watermark);
+        ConferencePage page = repository().getConferencesChangedSince(since, cursor, PAGE_SIZE);
+        List<String> removedKeys = page.getCursor() == null
+                ? repository().getRemovedSince(since) : Collections.<String>emptyList();
+        long newWatermark = Math.max(since.getTime(), start - SLACK_MILLIS);
+        Metrics.add("sync.changed", page.getConferences().size());
+        return new ConferenceSync(page.getConferences(), removedKeys, page.getCursor(),
+                newWatermark);
+    }
+}
@@ -0,0 +1,107 @@
+package com.google.devrel.training.conference.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A hashed timer wheel: a ring of slots, one per tick, each holding the items due in it.
+ *
+ * Scheduling and advancing cost O(1) per item, however many items are pending, because only
+ * the slots of the ticks that went by are visited. Items due further ahead than one turn of
+ * the wheel wait in their slot for as many turns as it takes. Items are returned as a Set, so
+ * an item scheduled many times in the same ticks comes out once.
+ *
+ * @param <T> the type of the scheduled items.
+ */
+public class TimerWheel<T> {
+
+    private final long tickMillis;
+
+    private final List<List<Entry<T>>> slots;
+
+    /**
+     * The last tick advanced past.
+     */
+    private long tick;
+
+    private int size;
+
+    private static class Entry<T> {
+        private final T item;
+        private final long dueTick;
+
+        Entry(T item, long dueTick) {
+            this.item = item;
+            this.dueTick = dueTick;
+        }
+    }
+
+    /**
+     * @param tickMillis the length of a tick, the precision of the wheel.
+     * @param slotCount the number of slots, so one turn of the wheel is slotCount ticks.
+     * @param nowMillis the current time.
+     */
+    public TimerWheel(long tickMillis, int slotCount, long nowMillis) {
+        this.tickMillis = tickMillis;
+        this.slots = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slots.add(new ArrayList<Entry<T>>(0));
+        }
+        this.tick = nowMillis / tickMillis;
+    }
+
+    /**
+     * Schedules an item. An item due in the past comes out of the next advance.
+     *
+     * @param item the item.
+     * @param dueMillis when the item is due, in milliseconds since the epoch.
+     */
+    public synchronized void schedule(T item, long dueMillis) {
+        // Rounded up, so the item is not returned before it is due.
+        long dueTick = Math.max(tick + 1, (dueMillis + tickMillis - 1) / tickMillis);
+        slots.get((int) (dueTick % slots.size())).add(new Entry<>(item, dueTick));
+        size++;
+    }
+
+    /**
+     * Advances the wheel to the given time.
+     *
+     * @param nowMillis the current time.
+     * @return the items that became due, in the order they were due.
+     */
+    public synchronized Set<T> advance(long nowMillis) {
+        Set<T> due = new LinkedHashSet<>();
+        long nowTick = nowMillis / tickMillis;
+        if (nowTick <= tick) {
+            return due;
+        }
+        // After a pause longer than a turn, every slot is visited once.
+        long from = Math.max(tick + 1, nowTick - slots.size() + 1);
+        for (long current = from; current <= nowTick && size > 0; current++) {
+            List<Entry<T>> slot = slots.get((int) (current % slots.size()));
+            List<Entry<T>> later = new ArrayList<>(0);
+            for (Entry<T> entry : slot) {
+                if (entry.dueTick <= nowTick) {
+                    due.add(entry.item);
+                    size--;
+                } else {
+                    later.add(entry);
+                }
+            }
+            slots.set((int) (current % slots.size()), later);
+        }
+        tick = nowTick;
+        return due;
+    }
+
+    /**
+     * Returns the number of scheduled entries, counting an item scheduled twice twice.
+     *
+     * @return the number of entries.
+     */
+    public synchronized int size() {
+        return size;
+    }
+}
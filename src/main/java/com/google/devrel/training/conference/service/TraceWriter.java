@@ -0,0 +1,68 @@
+package com.google.devrel.training.conference.service;
+
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes trace events to the request log in the Chrome trace-event JSON array format, which
+ * chrome://tracing and Perfetto open directly.
+ *
+ * Each trace is logged as one line starting with TRACE_PREFIX and holding a complete JSON
+ * array, so the traces of a time range can be exported from the logs, stripped of the prefix
+ * and joined into one array. Writing is best effort: a failure is logged and the trace is
+ * dropped, it never fails the request.
+ */
+public class TraceWriter {
+
+    private static final Logger LOG = Logger.getLogger(TraceWriter.class.getName());
+
+    /**
+     * Marks the log lines that hold traces.
+     */
+    public static final String TRACE_PREFIX = "TRACE ";
+
+    private TraceWriter() {}
+
+    /**
+     * Logs the events of one trace.
+     *
+     * @param events the trace events, each a JSON object.
+     */
+    public static void write(List<String> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        try {
+            StringBuilder line = new StringBuilder(TRACE_PREFIX).append('[');
+            for (int i = 0; i < events.size(); i++) {
+                if (i > 0) {
+                    line.append(',');
+                }
+                line.append(events.get(i));
+            }
+            LOG.info(line.append(']').toString());
+        } catch (RuntimeException e) {
+            Metrics.increment("tracing.writeFailed");
+            LOG.log(Level.WARNING, "Could not write trace", e);
+        }
+    }
+
+    /**
+     * Appends value to out as a JSON string literal.
+     */
+    static void quote(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+}
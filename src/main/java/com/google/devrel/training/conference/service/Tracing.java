@@ -0,0 +1,171 @@
+package com.google.devrel.training.conference.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Sampled per-request tracing of datastore operations.
+ *
+ * A request is traced when {@link #begin} samples it. While it runs, every {@link #span} opened
+ * on the same thread is recorded, and {@link #end} hands the spans to the TraceWriter as Chrome
+ * trace events. When the request is not sampled, span() returns a shared no-op Span, so the
+ * cost of an instrumented call is a ThreadLocal lookup.
+ *
+ * The sampling rate starts from the conference.trace.sampleRate system property and can be
+ * changed at runtime through the TracingServlet.
+ */
+public class Tracing {
+
+    private static final Span NOOP = new Span(null, null, null);
+
+    private static final ThreadLocal<Trace> CURRENT = new ThreadLocal<>();
+
+    private static volatile double sampleRate = parseRate(
+            System.getProperty("conference.trace.sampleRate"));
+
+    private Tracing() {}
+
+    /**
+     * Returns the fraction of requests that are traced.
+     * @return a rate between 0 and 1.
+     */
+    public static double getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Sets the fraction of requests that are traced, 0 to turn tracing off.
+     *
+     * @param rate a rate between 0 and 1.
+     */
+    public static void setSampleRate(double rate) {
+        if (rate < 0 || rate > 1 || Double.isNaN(rate)) {
+            throw new IllegalArgumentException("Sample rate must be between 0 and 1: " + rate);
+        }
+        sampleRate = rate;
+    }
+
+    /**
+     * Decides whether to trace the request starting on this thread and starts its trace if so.
+     * Must be followed by a call to {@link #end} on the same thread.
+     *
+     * @param name the name of the request span, such as the request URI.
+     */
+    public static void begin(String name) {
+        double rate = sampleRate;
+        if (rate > 0 && (rate >= 1 || ThreadLocalRandom.current().nextDouble() < rate)) {
+            CURRENT.set(new Trace(name));
+        }
+    }
+
+    /**
+     * Ends the trace of the request on this thread, if it was sampled, and writes it out.
+     */
+    public static void end() {
+        Trace trace = CURRENT.get();
+        if (trace != null) {
+            CURRENT.remove();
+            trace.root.close();
+            Metrics.increment("tracing.traces");
+            TraceWriter.write(trace.events);
+        }
+    }
+
+    /**
+     * Opens a span for an operation of the current request. Use it in a try-with-resources
+     * statement so that the span is closed when the operation ends.
+     *
+     * @param category the kind of operation, such as "load" or "query".
+     * @param name what the operation works on, such as an entity kind.
+     * @return the Span to close, a no-op when the request is not traced.
+     */
+    public static Span span(String category, String name) {
+        Trace trace = CURRENT.get();
+        return trace == null ? NOOP : new Span(trace, category, name);
+    }
+
+    private static double parseRate(String value) {
+        try {
+            double rate = value == null ? 0 : Double.parseDouble(value);
+            return rate < 0 || rate > 1 || Double.isNaN(rate) ? 0 : rate;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * The spans recorded for one request.
+     */
+    private static class Trace {
+        private final long startMicros = System.currentTimeMillis() * 1000;
+        private final long startNanos = System.nanoTime();
+        private final long threadId = Thread.currentThread().getId();
+        private final List<String> events = new ArrayList<>(0);
+        private final Span root;
+
+        Trace(String name) {
+            root = new Span(this, "request", name);
+        }
+
+        long micros(long nanos) {
+            return startMicros + (nanos - startNanos) / 1000;
+        }
+    }
+
+    /**
+     * A timed operation, recorded as a complete ("X") trace event when closed.
+     */
+    public static final class Span implements AutoCloseable {
+
+        private final Trace trace;
+        private final String category;
+        private final String name;
+        private final long startNanos;
+        private String detail;
+
+        private Span(Trace trace, String category, String name) {
+            this.trace = trace;
+            this.category = category;
+            this.name = name;
+            this.startNanos = trace == null ? 0 : System.nanoTime();
+        }
+
+        /**
+         * Attaches a detail, such as the number of keys or the attempt number, to the span.
+         *
+         * @param detail the detail to show with the span.
+         * @return this Span.
+         */
+        public Span detail(Object detail) {
+            if (trace != null) {
+                this.detail = String.valueOf(detail);
+            }
+            return this;
+        }
+
+        @Override
+        public void close() {
+            if (trace == null) {
+                return;
+            }
+            long start = trace.micros(startNanos);
+            long duration = Math.max(0, trace.micros(System.nanoTime()) - start);
+            StringBuilder event = new StringBuilder(128);
+            event.append("{\"name\":");
+            TraceWriter.quote(event, category + " " + name);
+            event.append(",\"cat\":");
+            TraceWriter.quote(event, category);
+            event.append(",\"ph\":\"X\",\"ts\":").append(start)
+                    .append(",\"dur\":").append(duration)
+                    .append(",\"pid\":1,\"tid\":").append(trace.threadId);
+            if (detail != null) {
+                event.append(",\"args\":{\"detail\":");
+                TraceWriter.quote(event, detail);
+                event.append('}');
+            }
+            event.append('}');
+            trace.events.add(event.toString());
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.ArchiveService;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Moves the Conferences that have ended to the archive. It is invoked by the cron job in
+ * cron.xml, and each run continues where the previous one stopped.
+ */
+public class ArchiveConferencesServlet extends HttpServlet {
+
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        int archived = ArchiveService.archive();
+        response.setContentType("text/plain");
+        response.getWriter().println("Archived " + archived + " conferences");
+    }
+}
@@ -0,0 +1,23 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.RecommendationService;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Rebuilds the recommendations of all users. It is invoked by the cron job in cron.xml.
+ */
+public class BuildRecommendationsServlet extends HttpServlet {
+
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        int built = RecommendationService.rebuildAll();
+        response.setContentType("text/plain");
+        response.getWriter().println("Built " + built + " recommendations");
+    }
+}
@@ -0,0 +1,24 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.Catalog;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Catches the catalog view of the instance up with the Conferences changed since. It is
+ * invoked by the cron job in cron.xml, and does nothing on an instance without a view.
+ */
+public class CatchUpCatalogServlet extends HttpServlet {
+
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        int changed = Catalog.catchUp();
+        response.setContentType("text/plain");
+        response.getWriter().println("Caught up with " + changed + " changed conferences");
+    }
+}
@@ -0,0 +1,24 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.IdempotencyService;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Deletes the idempotency records that are too old to be replayed. It is invoked by the cron
+ * job in cron.xml.
+ */
+public class DeleteIdempotencyRecordsServlet extends HttpServlet {
+
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        int deleted = IdempotencyService.deleteExpiredRecords();
+        response.setContentType("text/plain");
+        response.getWriter().println("Deleted " + deleted + " idempotency records");
+    }
+}
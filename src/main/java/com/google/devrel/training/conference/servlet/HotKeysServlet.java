@@ -0,0 +1,31 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.AccessTracker;
+import com.google.devrel.training.conference.service.AccessTracker.HotKey;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Serves the most accessed Conferences of this instance as plain text, one
+ * "websafeConferenceKey count hot" line per key, most accessed first.
+ */
+public class HotKeysServlet extends HttpServlet {
+
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        response.setContentType("text/plain");
+        response.setCharacterEncoding("UTF-8");
+        PrintWriter writer = response.getWriter();
+        writer.println("# recent accesses: " + AccessTracker.getTotal());
+        for (HotKey hotKey : AccessTracker.getHotKeys()) {
+            writer.println(hotKey.getWebsafeConferenceKey() + " " + hotKey.getCount() + " "
+                    + AccessTracker.isHot(hotKey.getWebsafeConferenceKey()));
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.DaysIndexService;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Fills the days index of the Conferences stored before it existed. It is invoked by the cron
+ * job in cron.xml, and each run continues where the previous one stopped.
+ */
+public class IndexConferenceDaysServlet extends HttpServlet {
+
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        int indexed = DaysIndexService.backfill();
+        response.setContentType("text/plain");
+        response.getWriter().println("Indexed the days of " + indexed + " conferences");
+    }
+}
@@ -0,0 +1,28 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.Metrics;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Serves the counters of this instance as plain text, one "name value" pair per line.
+ */
+public class MetricsServlet extends HttpServlet {
+
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        response.setContentType("text/plain");
+        response.setCharacterEncoding("UTF-8");
+        PrintWriter writer = response.getWriter();
+        for (Map.Entry<String, Long> entry : Metrics.snapshot().entrySet()) {
+            writer.println(entry.getKey() + " " + entry.getValue());
+        }
+    }
+}
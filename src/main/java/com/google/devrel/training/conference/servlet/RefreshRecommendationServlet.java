@@ -0,0 +1,31 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.RecommendationService;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Refreshes the recommendations of a user after a registration. It is invoked by the task
+ * that RecommendationService.enqueueRefresh adds to the default queue.
+ */
+public class RefreshRecommendationServlet extends HttpServlet {
+
+    @Override
+    public void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        String userId = request.getParameter("userId");
+        String websafeConferenceKey = request.getParameter("websafeConferenceKey");
+        if (userId == null || websafeConferenceKey == null) {
+            // A retry would fail the same way.
+            response.setStatus(HttpServletResponse.SC_OK);
+            return;
+        }
+        RecommendationService.refresh(userId, websafeConferenceKey);
+        response.setContentType("text/plain");
+        response.getWriter().println("Refreshed the recommendations of " + userId);
+    }
+}
@@ -0,0 +1,24 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.SeatHoldService;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Gives back the seats of expired holds. It is invoked by the cron job in cron.xml, and
+ * catches the holds that no request swept in time.
+ */
+public class ReleaseExpiredHoldsServlet extends HttpServlet {
+
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        int released = SeatHoldService.releaseExpired();
+        response.setContentType("text/plain");
+        response.getWriter().println("Released " + released + " expired holds");
+    }
+}
@@ -0,0 +1,25 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.AnnouncementService;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for putting announcements in memcache.
+ * The announcement announces conferences that are nearly sold out
+ * (defined as having 1 - 4 seats left). It is invoked by the cron job in cron.xml, and can be
+ * requested by an administrator on the development server to run it locally.
+ */
+public class SetAnnouncementServlet extends HttpServlet {
+
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        AnnouncementService.refreshAnnouncement();
+        response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+}
@@ -0,0 +1,37 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.Tracing;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Samples requests for tracing. The trace covers the whole request, including the Profile
+ * loads made while the response is serialized.
+ */
+public class TraceFilter implements Filter {
+
+    @Override
+    public void init(FilterConfig filterConfig) {}
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        Tracing.begin(((HttpServletRequest) request).getRequestURI());
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            Tracing.end();
+        }
+    }
+
+    @Override
+    public void destroy() {}
+}
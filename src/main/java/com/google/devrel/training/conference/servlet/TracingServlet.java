@@ -0,0 +1,38 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.Tracing;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Shows the tracing sample rate of this instance, and changes it when a sampleRate parameter
+ * between 0 and 1 is posted.
+ */
+public class TracingServlet extends HttpServlet {
+
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        response.setContentType("text/plain");
+        response.setCharacterEncoding("UTF-8");
+        response.getWriter().println("sampleRate " + Tracing.getSampleRate());
+    }
+
+    @Override
+    public void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        String sampleRate = request.getParameter("sampleRate");
+        try {
+            Tracing.setSampleRate(Double.parseDouble(sampleRate == null ? "" : sampleRate));
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                    "sampleRate must be a number between 0 and 1");
+            return;
+        }
+        doGet(request, response);
+    }
+}
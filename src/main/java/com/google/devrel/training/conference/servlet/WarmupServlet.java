@@ -0,0 +1,85 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.domain.Announcement;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceSync;
+import com.google.devrel.training.conference.domain.Dashboard;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Recommendation;
+import com.google.devrel.training.conference.domain.SeatHold;
+import com.google.devrel.training.conference.domain.SeatUpdate;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.form.ProfileForm;
+import com.google.devrel.training.conference.service.AnnouncementService;
+import com.google.devrel.training.conference.service.Catalog;
+import com.google.devrel.training.conference.service.Metrics;
+import com.google.devrel.training.conference.service.OfyService;
+import com.google.devrel.training.conference.spi.ConferenceApi;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Handles the App Engine warmup request sent to /_ah/warmup before a new instance gets traffic.
+ *
+ * It does the work that would otherwise be paid by the first user request: Objectify entity
+ * registration and metadata, loading the classes the API serializes, mapping the catalog
+ * snapshot, and priming the nearly-sold-out caches. The time taken by each step is logged and the total is returned.
+ */
+public class WarmupServlet extends HttpServlet {
+
+    private static final Logger LOG = Logger.getLogger(WarmupServlet.class.getName());
+
+    /**
+     * Classes used by the ConferenceApi methods as parameters or return values.
+     */
+    private static final Class<?>[] API_CLASSES = {
+            ConferenceApi.class, ConferenceApi.WrappedBoolean.class, Conference.class,
+            Profile.class, Announcement.class, Dashboard.class, ConferenceSync.class,
+            SeatUpdate.class, SeatHold.class, Recommendation.class, Recommendation.Item.class,
+            ConferenceForm.class,
+            ConferenceQueryForm.class,
+            ConferenceQueryForm.Filter.class, ProfileForm.class
+    };
+
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        long start = System.currentTimeMillis();
+
+        // Runs the OfyService static initializer and builds the entity metadata.
+        OfyService.factory().getMetadata(Conference.class);
+        OfyService.factory().getMetadata(Profile.class);
+        long ofyReady = System.currentTimeMillis();
+
+        for (Class<?> apiClass : API_CLASSES) {
+            try {
+                Class.forName(apiClass.getName(), true, apiClass.getClassLoader());
+                // Introspecting the getters warms the reflection caches used by the serializer.
+                apiClass.getMethods();
+            } catch (ClassNotFoundException e) {
+                LOG.warning("Could not load " + apiClass.getName() + ": " + e);
+            }
+        }
+        long classesReady = System.currentTimeMillis();
+
+        int catalogSize = Catalog.open();
+        long catalogReady = System.currentTimeMillis();
+
+        AnnouncementService.refreshAnnouncement();
+        long end = System.currentTimeMillis();
+
+        LOG.info("Warmup took " + (end - start) + " ms (objectify " + (ofyReady - start)
+                + " ms, api classes " + (classesReady - ofyReady) + " ms, catalog of "
+                + catalogSize + " " + (catalogReady - classesReady) + " ms, caches "
+                + (end - catalogReady) + " ms)");
+        Metrics.add("warmup.millis", end - start);
+        response.setContentType("text/plain");
+        response.getWriter().println("Warmup took " + (end - start) + " ms");
+    }
+}
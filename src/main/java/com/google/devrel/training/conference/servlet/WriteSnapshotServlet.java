@@ -0,0 +1,28 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.Catalog;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Writes the catalog snapshot that new instances read during warmup. It is invoked by the cron
+ * job in cron.xml, and does nothing when no snapshot object is configured.
+ */
+public class WriteSnapshotServlet extends HttpServlet {
+
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        if (Catalog.snapshotObject() == null) {
+            response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+            return;
+        }
+        int written = Catalog.writeSnapshot();
+        response.setContentType("text/plain");
+        response.getWriter().println("Wrote " + written + " conferences");
+    }
+}
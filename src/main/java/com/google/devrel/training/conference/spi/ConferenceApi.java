@@ -1,32 +1,54 @@
 package com.google.devrel.training.conference.spi;
 
-import static com.google.devrel.training.conference.service.OfyService.factory;
-import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static com.google.devrel.training.conference.service.RepositoryService.repository;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
 import javax.inject.Named;
 
-import com.googlecode.objectify.cmd.Query;
 import com.google.api.server.spi.config.Api;
 import com.google.api.server.spi.config.ApiMethod;
 import com.google.api.server.spi.config.ApiMethod.HttpMethod;
+import com.google.api.server.spi.config.Nullable;
+import com.google.api.server.spi.response.BadRequestException;
 import com.google.api.server.spi.response.ConflictException;
 import com.google.api.server.spi.response.ForbiddenException;
 import com.google.api.server.spi.response.NotFoundException;
+import com.google.api.server.spi.response.ServiceUnavailableException;
 import com.google.api.server.spi.response.UnauthorizedException;
 import com.google.appengine.api.users.User;
 import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Announcement;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceCount;
+import com.google.devrel.training.conference.domain.ConferenceSync;
+import com.google.devrel.training.conference.domain.Dashboard;
 import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Recommendation;
+import com.google.devrel.training.conference.domain.SeatHold;
+import com.google.devrel.training.conference.domain.SeatUpdate;
 import com.google.devrel.training.conference.form.ConferenceForm;
 import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Field;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Filter;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Operator;
 import com.google.devrel.training.conference.form.ProfileForm;
 import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
-import com.googlecode.objectify.Key;
-import com.googlecode.objectify.Work;
+import com.google.devrel.training.conference.repository.SeatResult;
+import com.google.devrel.training.conference.repository.SeatResult.Status;
+import com.google.devrel.training.conference.service.AccessTracker;
+import com.google.devrel.training.conference.service.AdmissionControl;
+import com.google.devrel.training.conference.service.AdmissionControl.Admission;
+import com.google.devrel.training.conference.service.AnnouncementService;
+import com.google.devrel.training.conference.service.ArchiveService;
+import com.google.devrel.training.conference.service.CountService;
+import com.google.devrel.training.conference.service.IdempotencyService;
+import com.google.devrel.training.conference.service.IdempotencyService.Claim;
+import com.google.devrel.training.conference.service.RecommendationService;
+import com.google.devrel.training.conference.service.SeatHoldService;
+import com.google.devrel.training.conference.service.SeatFeedHub;
+import com.google.devrel.training.conference.service.SyncService;
 
 /**
  * Defines conference APIs.
@@ -90,7 +112,8 @@ public class ConferenceApi {
 		else
 			profile.update(displayName, teeShirtSize);
 
-		ofy().save().entity(profile).now();
+		// Skipped by the repository when the form repeats the stored values.
+		repository().saveProfile(profile);
 
 		// Return the profile
 		return profile;
@@ -111,10 +134,7 @@ public class ConferenceApi {
 		if (user == null) {
 			throw new UnauthorizedException("Authorization required");
 		}
-		String userId = user.getUserId();
-		Key<Profile> key = Key.create(Profile.class, userId);
-		Profile profile = ofy().load().key(key).now();
-		return profile;
+		return repository().loadProfile(user.getUserId());
 	}
 
 	/**
@@ -125,18 +145,27 @@ public class ConferenceApi {
 	 * @return user's Profile
 	 */
 	private static Profile getProfileFromUser(User user) {
-		// First fetch the user's Profile from the datastore.
-		Profile profile = ofy().load().key(Key.create(Profile.class, user.getUserId())).now();
+		// First fetch the user's Profile from the repository.
+		Profile profile = repository().loadProfile(user.getUserId());
 		if (profile == null) {
-			// Create a new Profile if it doesn't exist.
-			// Use default displayName and teeShirtSize
-			String email = user.getEmail();
-			profile = new Profile(user.getUserId(), extractDefaultDisplayNameFromEmail(email), email,
-					TeeShirtSize.NOT_SPECIFIED);
+			profile = newDefaultProfile(user);
 		}
 		return profile;
 	}
 
+	/**
+	 * Creates a new, unsaved Profile for the user with the default displayName
+	 * and teeShirtSize.
+	 *
+	 * @param user
+	 * @return a new Profile
+	 */
+	private static Profile newDefaultProfile(User user) {
+		String email = user.getEmail();
+		return new Profile(user.getUserId(), extractDefaultDisplayNameFromEmail(email), email,
+				TeeShirtSize.NOT_SPECIFIED);
+	}
+
 	/**
 	 * Creates a new Conference object and stores it to the datastore.
 	 *
@@ -145,68 +174,177 @@ public class ConferenceApi {
 	 *            signed in.
 	 * @param conferenceForm
 	 *            A ConferenceForm object representing user's inputs.
+	 * @param idempotencyKey
+	 *            a key the client sends again when it retries the request,
+	 *            so that a retry returns the Conference created the first time.
 	 * @return A newly created Conference Object.
 	 * @throws UnauthorizedException
 	 *             when the user is not signed in.
+	 * @throws BadRequestException
+	 *             when the idempotency key is too long.
+	 * @throws ServiceUnavailableException
+	 *             when a request with the same idempotency key is still running.
+	 * @throws NotFoundException
+	 *             when the Conference created by an earlier request with the
+	 *             same idempotency key no longer exists.
 	 */
 	@ApiMethod(name = "createConference", path = "conference", httpMethod = HttpMethod.POST)
-	public Conference createConference(final User user, final ConferenceForm conferenceForm)
-			throws UnauthorizedException {
+	public Conference createConference(final User user, final ConferenceForm conferenceForm,
+			@Named("idempotencyKey") @Nullable final String idempotencyKey)
+			throws UnauthorizedException, BadRequestException, ServiceUnavailableException,
+			NotFoundException {
 		if (user == null) {
 			throw new UnauthorizedException("Authorization required");
 		}
-		String userId = user.getUserId();
-
-		Key<Profile> profileKey = Key.create(Profile.class, user.getUserId());
-		final Key<Conference> conferenceKey = factory().allocateId(profileKey, Conference.class);
+		Claim claim = claimIdempotencyKey("createConference", user, idempotencyKey);
+		if (!claim.isAcquired()) {
+			Conference created = repository().loadConference(claim.getOutcome());
+			if (created == null) {
+				throw new NotFoundException("No Conference found with key: " + claim.getOutcome());
+			}
+			return created;
+		}
+		Conference conference = null;
+		try {
+			conference = repository().createConference(newDefaultProfile(user), conferenceForm,
+					claim.getRecordId());
+		} finally {
+			if (conference == null) {
+				IdempotencyService.release(claim);
+			}
+		}
+		if (conference == null) {
+			// Only a retry whose earlier request's Conference has been removed gets here.
+			throw new NotFoundException("The conference created with this idempotency key "
+					+ "no longer exists");
+		}
+		IdempotencyService.complete(claim, conference.getWebsafeKey());
+		return conference;
+	}
 
-		final long conferenceId = conferenceKey.getId();
-		Profile profile = getProfileFromUser(user);
-		Conference conference = ofy().load().key(Key.create(profileKey, Conference.class, conferenceId)).now();
-		if (conference == null)
-			conference = new Conference(conferenceId, userId, conferenceForm);
-		else
-			conference.updateWithConferenceForm(conferenceForm);
-		ofy().save().entities(profile, conference).now();
+	/**
+	 * Throws the error for a registration or hold that AdmissionControl turned away.
+	 * Clients read when to retry from the message, which always ends with
+	 * "Retry after N seconds"; the message format is part of the API.
+	 *
+	 * @param admission the Admission decision.
+	 * @throws ConflictException when the Conference is sold out.
+	 * @throws ServiceUnavailableException when the Conference has too many registrations.
+	 */
+	private static void checkAdmitted(Admission admission)
+			throws ConflictException, ServiceUnavailableException {
+		String retryAfter = "Retry after " + admission.getRetryAfterSeconds() + " seconds";
+		if (admission.isSoldOut()) {
+			throw new ConflictException("There are no seats available. " + retryAfter);
+		} else if (!admission.isAdmitted()) {
+			throw new ServiceUnavailableException("Too many registrations for this conference. "
+					+ retryAfter);
+		}
+	}
 
-		return conference;
+	/**
+	 * Claims the idempotency key of a request before it runs its transaction.
+	 *
+	 * @return the Claim, either acquired or with the outcome of the earlier request.
+	 */
+	private static Claim claimIdempotencyKey(String scope, User user, String idempotencyKey)
+			throws BadRequestException, ServiceUnavailableException {
+		Claim claim;
+		try {
+			claim = IdempotencyService.claim(scope, user.getUserId(), idempotencyKey);
+		} catch (IllegalArgumentException e) {
+			throw new BadRequestException(e.getMessage());
+		}
+		if (!claim.isAcquired() && claim.getOutcome() == null) {
+			throw new ServiceUnavailableException(
+					"A request with this idempotency key is in progress. Retry later");
+		}
+		return claim;
 	}
 
+	/**
+	 * Returns the Conferences matching the query form. Conferences that ended before today
+	 * are archived and only returned when the form includes the archive.
+	 *
+	 * @param conferenceQueryForm
+	 *            the query options.
+	 * @return a List of Conferences.
+	 * @throws BadRequestException
+	 *             when the filters cannot be run as one query.
+	 */
 	@ApiMethod(name = "queryConferences", path = "queryConferences", httpMethod = HttpMethod.POST)
-	public List<Conference> queryConferences(ConferenceQueryForm conferenceQueryForm) {
-		Iterable<Conference> conferenceIterable = conferenceQueryForm.getQuery();
-		List<Conference> result = new ArrayList<>(0);
-		List<Key<Profile>> organizersKeyList = new ArrayList<>(0);
-		for (Conference conference : conferenceIterable) {
-			organizersKeyList.add(Key.create(Profile.class, conference.getOrganizerUserId()));
-			result.add(conference);
+	public List<Conference> queryConferences(ConferenceQueryForm conferenceQueryForm)
+			throws BadRequestException {
+		List<Conference> conferences;
+		try {
+			conferences = ArchiveService.query(conferenceQueryForm);
+		} catch (IllegalArgumentException e) {
+			throw new BadRequestException(e.getMessage());
+		}
+		AccessTracker.recordAll(conferences);
+		return conferences;
+	}
+
+	/**
+	 * Counts the Conferences matching the query form, without returning them.
+	 *
+	 * @param conferenceQueryForm
+	 *            the same query options as for queryConferences.
+	 * @return a ConferenceCount, capped at CountService.MAX_COUNT.
+	 * @throws BadRequestException
+	 *             when the filters cannot be run as one query.
+	 */
+	@ApiMethod(name = "countConferences", path = "countConferences", httpMethod = HttpMethod.POST)
+	public ConferenceCount countConferences(ConferenceQueryForm conferenceQueryForm)
+			throws BadRequestException {
+		try {
+			return CountService.count(conferenceQueryForm);
+		} catch (IllegalArgumentException e) {
+			throw new BadRequestException(e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns the Conferences created, changed or removed since the client's last sync.
+	 *
+	 * @param watermark
+	 *            the watermark returned by the client's last sync, none for a full sync.
+	 * @param cursor
+	 *            the cursor returned with the previous page, none for the first page.
+	 * @return a ConferenceSync with up to SyncService.PAGE_SIZE changed Conferences.
+	 * @throws BadRequestException
+	 *             when the cursor is not valid.
+	 */
+	@ApiMethod(name = "syncConferences", path = "syncConferences", httpMethod = HttpMethod.GET)
+	public ConferenceSync syncConferences(@Named("watermark") @Nullable Long watermark,
+			@Named("cursor") @Nullable String cursor) throws BadRequestException {
+		try {
+			return SyncService.sync(watermark, cursor);
+		} catch (IllegalArgumentException e) {
+			throw new BadRequestException("Invalid cursor: " + cursor);
 		}
-		// To avoid separate datastore gets for each Conference, pre-fetch the
-		// Profiles.
-		ofy().load().keys(organizersKeyList);
-		return result;
 	}
 
 	@ApiMethod(name = "getConferencesCreated", path = "getConferencesCreated", httpMethod = HttpMethod.POST)
 	public List<Conference> getConferencesCreated(final User user) throws UnauthorizedException {
 		if (user == null)
 			throw new UnauthorizedException("Authorization required.");
-		Profile profile = getProfileFromUser(user);
-		if (profile != null) {
-			Query query = ofy().load().type(Conference.class).ancestor(profile);
-			return query.list();
-		}
-		return new ArrayList<Conference>(0);
+		List<Conference> conferences = repository().getConferencesCreated(user.getUserId());
+		AccessTracker.recordAll(conferences);
+		return conferences;
 	}
 
 	@ApiMethod(name = "getConferencesFiltered", path = "getConferencesFiltered", httpMethod = HttpMethod.POST)
 	public List<Conference> getConferencesFiltered() {
-		Query query = ofy().load().type(Conference.class);
-		query = query.filter("maxAttendees >", 10);
-		query = query.filter("city =", "London");
-		query = query.filter("topics =", "Web Technologies");
-		query = query.filter("month =", 1).order("maxAttendees").order("name");
-		return query.list();
+		// Ordered by maxAttendees, the inequality field, and then by name.
+		ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+				.filter(new Filter(Field.MAX_ATTENDEES, Operator.GT, "10"))
+				.filter(new Filter(Field.CITY, Operator.EQ, "London"))
+				.filter(new Filter(Field.TOPIC, Operator.EQ, "Web Technologies"))
+				.filter(new Filter(Field.MONTH, Operator.EQ, "1"));
+		List<Conference> conferences = repository().queryConferences(conferenceQueryForm);
+		AccessTracker.recordAll(conferences);
+		return conferences;
 	}
 
 	/**
@@ -221,14 +359,50 @@ public class ConferenceApi {
 	@ApiMethod(name = "getConference", path = "conference/{websafeConferenceKey}", httpMethod = HttpMethod.GET)
 	public Conference getConference(@Named("websafeConferenceKey") final String websafeConferenceKey)
 			throws NotFoundException {
-		Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
-		Conference conference = ofy().load().key(conferenceKey).now();
+		Conference conference = repository().loadConference(websafeConferenceKey);
 		if (conference == null) {
 			throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
 		}
+		// Keys that do not exist are not counted, so they cannot crowd out the hot ones.
+		AccessTracker.record(websafeConferenceKey);
 		return conference;
 	}
 
+	/**
+	 * Waits for the seats available for a Conference to change, for clients that keep the
+	 * count current while a page is open. The call returns as soon as the count changes after
+	 * the given version, or after SeatFeedHub.MAX_WAIT_MILLIS with the current count.
+	 *
+	 * @param websafeConferenceKey
+	 *            The String representation of the Conference Key.
+	 * @param version
+	 *            the version returned by the previous call, none for the current count.
+	 * @return a SeatUpdate whose version is passed to the next call.
+	 * @throws NotFoundException
+	 *             when there is no Conference with the given conferenceId.
+	 */
+	@ApiMethod(name = "watchSeats", path = "conference/{websafeConferenceKey}/seats", httpMethod = HttpMethod.GET)
+	public SeatUpdate watchSeats(@Named("websafeConferenceKey") final String websafeConferenceKey,
+			@Named("version") @Nullable Long version) throws NotFoundException {
+		SeatUpdate update = SeatFeedHub.watch(websafeConferenceKey, version == null ? 0 : version);
+		if (update == null) {
+			throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
+		}
+		return update;
+	}
+
+	/**
+	 * Returns the announcement of nearly sold out conferences. The announcement is precomputed
+	 * by the SetAnnouncementServlet cron job and rebuilt here only on a memcache miss.
+	 *
+	 * @return an Announcement object, or null when there is nothing to announce.
+	 */
+	@ApiMethod(name = "getAnnouncement", path = "announcement", httpMethod = HttpMethod.GET)
+	public Announcement getAnnouncement() {
+		String message = AnnouncementService.getAnnouncement();
+		return message.isEmpty() ? null : new Announcement(message);
+	}
+
 	/**
 	 * Just a wrapper for Boolean. We need this wrapped Boolean because
 	 * endpoints functions must return an object instance, they can't return a
@@ -263,9 +437,16 @@ public class ConferenceApi {
      *
      * @param user An user who invokes this method, null when the user is not signed in.
      * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param idempotencyKey a key the client sends again when it retries the request, so that
+     *        a retry returns the outcome of the first registration.
      * @return Boolean true when success, otherwise false
      * @throws UnauthorizedException when the user is not signed in.
      * @throws NotFoundException when there is no Conference with the given conferenceId.
+     * @throws BadRequestException when the idempotency key is too long.
+     * @throws ConflictException when the user is registered already, there are no seats, or
+     *         an earlier request with the idempotency key did not register.
+     * @throws ServiceUnavailableException when an earlier request with the idempotency key is
+     *         still running.
      */
     @ApiMethod(
             name = "registerForConference",
@@ -273,74 +454,109 @@ public class ConferenceApi {
             httpMethod = HttpMethod.POST
     )
 
-    public WrappedBoolean registerForConference(final User user, @Named("websafeConferenceKey") final String websafeConferenceKey)
-            throws UnauthorizedException, NotFoundException,
-            ForbiddenException, ConflictException {
+    public WrappedBoolean registerForConference(final User user, @Named("websafeConferenceKey") final String websafeConferenceKey,
+            @Named("idempotencyKey") @Nullable final String idempotencyKey)
+            throws UnauthorizedException, NotFoundException, BadRequestException,
+            ForbiddenException, ConflictException, ServiceUnavailableException {
         // If not signed in, throw a 401 error.
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
 
-        // Get the userId
-        final String userId = user.getUserId();
-
-        WrappedBoolean result = ofy().transact(new Work<WrappedBoolean>()
-        {
-        	public WrappedBoolean run()
-        	{
-                try {
-                	Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
-                	// TODO
-                	// Get the Conference entity from the datastore
-                	Conference conference = ofy().load().key(conferenceKey).now();
-                	// 404 when there is no Conference with the given conferenceId.
-                	if (conference == null) {
-                		return new WrappedBoolean (false, "No Conference found with key: " + websafeConferenceKey);
-                	}
-                	// TODO
-                	// Get the user's Profile entity
-                	Profile profile = getProfileFromUser(user);
-                	// Has the user already registered to attend this conference?
-                	if (profile.getConferenceKeysToAttend().contains(websafeConferenceKey)) {
-                		return new WrappedBoolean (false, "Already registered");
-                	} else if (conference.getSeatsAvailable() <= 0) {
-                		return new WrappedBoolean (false, "No seats available");
-                	} else {
-                		// All looks good, go ahead and book the seat
-                		profile.addToConferenceKeysToAttend(websafeConferenceKey);
-                		conference.bookSeats(1);
-                		ofy().save().entities(profile, conference).now();
-                        // We are booked!
-                		return new WrappedBoolean(true, "Registration successful");
-                   }
-
-                } catch (Exception e) {
-                	return new WrappedBoolean(false, "Unknown exception");
-                }
-        	}
-        });
-     // if result is false
-    	if(!result.getResult())
-    	{
-    		if(result.getReason().contains("No Conference found with key"))
-    		{
-    			throw new NotFoundException(result.getReason());
-    		}
-    		else if(result.getReason()=="Already registered")
-    		{
-    			throw new ConflictException("You have already registered");
-    		}
-    		else if(result.getReason()=="No seats available")
-    		{
-    			throw new ConflictException("There are no seats available");
-    		}
-    		else
-    		{
-    			throw new ForbiddenException("Unknown exception");
-    		}
-		}
-    	return result;
+        // A retry of a registration that succeeded returns its outcome without a transaction.
+        Claim claim = claimIdempotencyKey("registerForConference:" + websafeConferenceKey, user,
+                idempotencyKey);
+        if (!claim.isAcquired()) {
+            if (Status.REGISTERED.name().equals(claim.getOutcome())) {
+                return new WrappedBoolean(true, "Registration successful");
+            }
+            // Only a registration stores its outcome, so this one did not complete.
+            throw new ConflictException("A request with this idempotency key did not register. "
+                    + "Retry later");
+        }
+        boolean registered = false;
+        try {
+            // Shed load before the transaction when this conference is sold out or busy.
+            Admission admission = AdmissionControl.admit(websafeConferenceKey);
+            checkAdmitted(admission);
+
+            SeatResult seatResult = null;
+            try {
+                seatResult = repository().registerForConference(newDefaultProfile(user),
+                        websafeConferenceKey, claim.getRecordId());
+            } finally {
+                // Only a failure inside or while committing the transaction counts as contention.
+                AdmissionControl.complete(websafeConferenceKey,
+                        seatResult != null && seatResult.getStatus() != Status.FAILED);
+            }
+            // Only keys of existing Conferences count as accesses.
+            if (seatResult.getStatus() != Status.NOT_FOUND) {
+                AccessTracker.record(websafeConferenceKey);
+            }
+            publishSeats(websafeConferenceKey, seatResult);
+            switch (seatResult.getStatus()) {
+                case REGISTERED:
+                    // We are booked!
+                    registered = true;
+                    IdempotencyService.complete(claim, Status.REGISTERED.name());
+                    RecommendationService.enqueueRefresh(user.getUserId(), websafeConferenceKey);
+                    return new WrappedBoolean(true, "Registration successful");
+                case NOT_FOUND:
+                    throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
+                case ALREADY_REGISTERED:
+                    throw new ConflictException("You have already registered");
+                case NO_SEATS:
+                    throw new ConflictException("There are no seats available");
+                default:
+                    throw new ForbiddenException("Unknown exception");
+            }
+        } finally {
+            if (!registered) {
+                IdempotencyService.release(claim);
+            }
+        }
     }
+	/**
+	 * Returns the user's Profile, the Conferences the user has created and the Conferences the
+	 * user is going to attend in one call, for when the client opens.
+	 *
+	 * @param user
+	 *            An user who invokes this method, null when the user is not
+	 *            signed in.
+	 * @return a Dashboard, whose Profile is null when the user has not saved one.
+	 * @throws UnauthorizedException
+	 *             when the User object is null.
+	 */
+	@ApiMethod(name = "getDashboard", path = "dashboard", httpMethod = HttpMethod.GET)
+	public Dashboard getDashboard(final User user) throws UnauthorizedException {
+		if (user == null) {
+			throw new UnauthorizedException("Authorization required");
+		}
+		Dashboard dashboard = repository().loadDashboard(user.getUserId());
+		AccessTracker.recordAll(dashboard.getConferencesCreated());
+		AccessTracker.recordAll(dashboard.getConferencesToAttend());
+		return dashboard;
+	}
+
+	/**
+	 * Returns the Conferences recommended to the user, precomputed from the Conferences the
+	 * user attends.
+	 *
+	 * @param user
+	 *            An user who invokes this method, null when the user is not
+	 *            signed in.
+	 * @return a Recommendation, or null when none has been computed for the user yet.
+	 * @throws UnauthorizedException
+	 *             when the User object is null.
+	 */
+	@ApiMethod(name = "getRecommendations", path = "recommendations", httpMethod = HttpMethod.GET)
+	public Recommendation getRecommendations(final User user) throws UnauthorizedException {
+		if (user == null) {
+			throw new UnauthorizedException("Authorization required");
+		}
+		return RecommendationService.getRecommendation(user.getUserId());
+	}
+
 	/**
 	 * Returns a collection of Conference Object that the user is going to
 	 * attend.
@@ -363,13 +579,9 @@ public class ConferenceApi {
 		if (profile == null) {
 			throw new NotFoundException("Profile doesn't exist.");
 		}
-		Collection<Conference> attending = new ArrayList<Conference>(0);
-		for (String websafe : profile.getConferenceKeysToAttend())
-		{
-			Key<Conference> key = Key.create(websafe);
-			attending.add(ofy().load().key(key).now());
-		}
-		return attending;
+		List<Conference> conferences = repository().loadConferences(profile.getConferenceKeysToAttend());
+		AccessTracker.recordAll(conferences);
+		return conferences;
 	}
 	
 	/**     
@@ -392,38 +604,165 @@ public class ConferenceApi {
             throw new UnauthorizedException("Authorization required");
         }
 
-        // Get the userId
-        final String userId = user.getUserId();
-
-        WrappedBoolean result = ofy().transact(new Work<WrappedBoolean>()
-        {
-        	public WrappedBoolean run()
-        	{
-        		try
-        		{
-        			Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
-                	Conference conference = ofy().load().key(conferenceKey).now();
-                	// 404 when there is no Conference with the given conferenceId.
-                	if (conference == null) {
-                		return new WrappedBoolean (false, "No Conference found with key: " + websafeConferenceKey);
-                	}
-                	Profile profile = getProfileFromUser(user);
-                	// Has the user already registered to attend this conference?
-                	if (!profile.getConferenceKeysToAttend().contains(websafeConferenceKey)) {
-                		return new WrappedBoolean (false, "Not Attending this Conference");
-                	} else {
-                		profile.unregisterFromConference(websafeConferenceKey);
-                		conference.giveBackSeats(1);
-                		ofy().save().entities(profile, conference).now();
-                        // We are booked!
-                		return new WrappedBoolean(true, "Unregistration successful");
-                   }
-        		} catch (Exception e) {
-        			return new WrappedBoolean(false, "Unknown exception");
-        		}
-
-            }        		
-        });
+        SeatResult seatResult = repository().unregisterFromConference(user.getUserId(),
+                websafeConferenceKey);
+        WrappedBoolean result;
+        switch (seatResult.getStatus()) {
+            case UNREGISTERED:
+                result = new WrappedBoolean(true, "Unregistration successful");
+                break;
+            case NOT_FOUND:
+                result = new WrappedBoolean(false, "No Conference found with key: " + websafeConferenceKey);
+                break;
+            case NOT_REGISTERED:
+                result = new WrappedBoolean(false, "Not Attending this Conference");
+                break;
+            default:
+                result = new WrappedBoolean(false, "Unknown exception");
+        }
+		if (result.getResult()) {
+			// Seats were given back, so a sold out view of this conference is stale.
+			publishSeats(websafeConferenceKey, seatResult);
+		}
 		return result;
 	}
+
+	/**
+	 * Holds a seat of the specified Conference for the user for a few minutes, while the
+	 * user checks out. The seat is registered with confirmHold and given back with
+	 * releaseHold or when the hold expires. Holding again returns the current hold.
+	 *
+	 * @param user
+	 *            An user who invokes this method, null when the user is not
+	 *            signed in.
+	 * @param websafeConferenceKey
+	 *            The String representation of the Conference Key.
+	 * @return the SeatHold, with the time it expires.
+	 * @throws UnauthorizedException
+	 *             when the user is not signed in.
+	 * @throws NotFoundException
+	 *             when there is no Conference with the given key.
+	 * @throws ConflictException
+	 *             when the user is registered or there are no seats available.
+	 */
+	@ApiMethod(name = "holdSeat", path = "conference/{websafeConferenceKey}/hold",
+			httpMethod = HttpMethod.POST)
+	public SeatHold holdSeat(final User user,
+			@Named("websafeConferenceKey") final String websafeConferenceKey)
+			throws UnauthorizedException, NotFoundException, ForbiddenException,
+			ConflictException, ServiceUnavailableException {
+		if (user == null) {
+			throw new UnauthorizedException("Authorization required");
+		}
+		// Holds take seats like registrations, so they are shed the same way.
+		Admission admission = AdmissionControl.admit(websafeConferenceKey);
+		checkAdmitted(admission);
+		SeatResult seatResult = null;
+		try {
+			seatResult = SeatHoldService.hold(user.getUserId(), websafeConferenceKey);
+		} finally {
+			AdmissionControl.complete(websafeConferenceKey,
+					seatResult != null && seatResult.getStatus() != Status.FAILED);
+		}
+		publishSeats(websafeConferenceKey, seatResult);
+		switch (seatResult.getStatus()) {
+			case HELD:
+				return seatResult.getHold();
+			case NOT_FOUND:
+				throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
+			case ALREADY_REGISTERED:
+				throw new ConflictException("You have already registered");
+			case NO_SEATS:
+				throw new ConflictException("There are no seats available");
+			default:
+				throw new ForbiddenException("Unknown exception");
+		}
+	}
+
+	/**
+	 * Registers the user for the specified Conference with the seat the user holds.
+	 *
+	 * @param user
+	 *            An user who invokes this method, null when the user is not
+	 *            signed in.
+	 * @param websafeConferenceKey
+	 *            The String representation of the Conference Key.
+	 * @return Boolean true when success.
+	 * @throws UnauthorizedException
+	 *             when the user is not signed in.
+	 * @throws NotFoundException
+	 *             when there is no Conference with the given key.
+	 * @throws ConflictException
+	 *             when the user holds no seat, or the hold expired.
+	 */
+	@ApiMethod(name = "confirmHold", path = "conference/{websafeConferenceKey}/hold/confirm",
+			httpMethod = HttpMethod.POST)
+	public WrappedBoolean confirmHold(final User user,
+			@Named("websafeConferenceKey") final String websafeConferenceKey)
+			throws UnauthorizedException, NotFoundException, ForbiddenException,
+			ConflictException {
+		if (user == null) {
+			throw new UnauthorizedException("Authorization required");
+		}
+		SeatResult seatResult = SeatHoldService.confirm(newDefaultProfile(user),
+				websafeConferenceKey);
+		publishSeats(websafeConferenceKey, seatResult);
+		switch (seatResult.getStatus()) {
+			case REGISTERED:
+				RecommendationService.enqueueRefresh(user.getUserId(), websafeConferenceKey);
+				return new WrappedBoolean(true, "Registration successful");
+			case NOT_FOUND:
+				throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
+			case NOT_HELD:
+				throw new ConflictException("You hold no seat of this conference, "
+						+ "or the hold expired");
+			case ALREADY_REGISTERED:
+				throw new ConflictException("You have already registered");
+			default:
+				throw new ForbiddenException("Unknown exception");
+		}
+	}
+
+	/**
+	 * Gives back the seat the user holds of the specified Conference.
+	 *
+	 * @param user
+	 *            An user who invokes this method, null when the user is not
+	 *            signed in.
+	 * @param websafeConferenceKey
+	 *            The String representation of the Conference Key.
+	 * @return Boolean true when a held seat was given back, otherwise false.
+	 * @throws UnauthorizedException
+	 *             when the user is not signed in.
+	 */
+	@ApiMethod(name = "releaseHold", path = "conference/{websafeConferenceKey}/hold",
+			httpMethod = HttpMethod.DELETE)
+	public WrappedBoolean releaseHold(final User user,
+			@Named("websafeConferenceKey") final String websafeConferenceKey)
+			throws UnauthorizedException {
+		if (user == null) {
+			throw new UnauthorizedException("Authorization required");
+		}
+		SeatResult seatResult = SeatHoldService.release(user.getUserId(), websafeConferenceKey);
+		switch (seatResult.getStatus()) {
+			case RELEASED:
+				publishSeats(websafeConferenceKey, seatResult);
+				return new WrappedBoolean(true, "Hold released");
+			case NOT_HELD:
+				return new WrappedBoolean(false, "No seat held of this Conference");
+			default:
+				return new WrappedBoolean(false, "Unknown exception");
+		}
+	}
+
+	/**
+	 * Passes the seats left after a seat operation to the admission control and the seat feed.
+	 */
+	private static void publishSeats(String websafeConferenceKey, SeatResult seatResult) {
+		if (seatResult.getSeatsAvailable() >= 0) {
+			AdmissionControl.recordSeats(websafeConferenceKey, seatResult.getSeatsAvailable());
+			SeatFeedHub.publish(websafeConferenceKey, seatResult.getSeatsAvailable(),
+					System.currentTimeMillis());
+		}
+	}
 }
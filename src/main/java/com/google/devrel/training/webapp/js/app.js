@@ -76,6 +76,22 @@ app.constant('HTTP_ERRORS', {
 });
 
 
+/**
+ * @ngdoc service
+ * @name idempotencyKey
+ *
+ * @description
+ * Makes the keys that let the server recognize a retried request, so that a retry returns the
+ * result of the first attempt instead of running it again.
+ *
+ */
+app.factory('idempotencyKey', function () {
+    return function () {
+        return Date.now().toString(36) + '-' + Math.random().toString(36).slice(2, 12);
+    };
+});
+
+
 /**
  * @ngdoc service
  * @name oauth2Provider
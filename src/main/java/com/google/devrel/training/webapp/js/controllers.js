@@ -129,7 +129,7 @@ conferenceApp.controllers.controller('MyProfileCtrl',
  * A controller used for the Create conferences page.
  */
 conferenceApp.controllers.controller('CreateConferenceCtrl',
-    function ($scope, $log, oauth2Provider, HTTP_ERRORS) {
+    function ($scope, $log, oauth2Provider, HTTP_ERRORS, idempotencyKey) {
 
         /**
          * The conference object being edited in the page.
@@ -208,10 +208,17 @@ conferenceApp.controllers.controller('CreateConferenceCtrl',
             }
 
             $scope.loading = true;
-            gapi.client.conference.createConference($scope.conference).
+            // Kept until the server answers for sure, so that a retry after a timeout
+            // returns the conference created the first time.
+            $scope.createKey = $scope.createKey || idempotencyKey();
+            gapi.client.conference.createConference(
+                angular.extend({idempotencyKey: $scope.createKey}, $scope.conference)).
                 execute(function (resp) {
                     $scope.$apply(function () {
                         $scope.loading = false;
+                        if (!resp.error || (resp.code && resp.code < 500)) {
+                            $scope.createKey = null;
+                        }
                         if (resp.error) {
                             // The request has failed.
                             var errorMessage = resp.error.message || '';
@@ -463,18 +470,30 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
     }
 
     /**
-     * Invokes the conference.getConferencesCreated method.
+     * Holds the result of the conference.getDashboard method, shared by the tabs of the
+     * conferences the user has created and will attend.
+     * @type {?Object}
      */
-    $scope.getConferencesCreated = function () {
+    $scope.dashboard = null;
+
+    /**
+     * Invokes the conference.getDashboard method once and passes the dashboard to callback,
+     * which runs inside $scope.$apply.
+     */
+    $scope.withDashboard = function (callback) {
+        if ($scope.dashboard) {
+            callback($scope.dashboard);
+            return;
+        }
         $scope.loading = true;
-        gapi.client.conference.getConferencesCreated().
+        gapi.client.conference.getDashboard().
             execute(function (resp) {
                 $scope.$apply(function () {
                     $scope.loading = false;
                     if (resp.error) {
                         // The request has failed.
                         var errorMessage = resp.error.message || '';
-                        $scope.messages = 'Failed to query the conferences created : ' + errorMessage;
+                        $scope.messages = 'Failed to get your conferences : ' + errorMessage;
                         $scope.alertStatus = 'warning';
                         $log.error($scope.messages);
 
@@ -484,15 +503,8 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
                         }
                     } else {
                         // The request has succeeded.
-                        $scope.submitted = false;
-                        $scope.messages = 'Query succeeded : Conferences you have created';
-                        $scope.alertStatus = 'success';
-                        $log.info($scope.messages);
-
-                        $scope.conferences = [];
-                        angular.forEach(resp.items, function (conference) {
-                            $scope.conferences.push(conference);
-                        });
+                        $scope.dashboard = resp.result;
+                        callback($scope.dashboard);
                     }
                     $scope.submitted = true;
                 });
@@ -500,36 +512,30 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
     };
 
     /**
-     * Retrieves the conferences to attend by calling the conference.getProfile method and
-     * invokes the conference.getConference method n times where n == the number of the conferences to attend.
+     * Shows the conferences the user has created, from the dashboard.
      */
-    $scope.getConferencesAttend = function () {
-        $scope.loading = true;
-        gapi.client.conference.getConferencesToAttend().
-            execute(function (resp) {
-                $scope.$apply(function () {
-                    if (resp.error) {
-                        // The request has failed.
-                        var errorMessage = resp.error.message || '';
-                        $scope.messages = 'Failed to query the conferences to attend : ' + errorMessage;
-                        $scope.alertStatus = 'warning';
-                        $log.error($scope.messages);
+    $scope.getConferencesCreated = function () {
+        $scope.withDashboard(function (dashboard) {
+            $scope.submitted = false;
+            $scope.messages = 'Query succeeded : Conferences you have created';
+            $scope.alertStatus = 'success';
+            $log.info($scope.messages);
+            $scope.conferences = dashboard.conferencesCreated || [];
+            $scope.submitted = true;
+        });
+    };
 
-                        if (resp.code && resp.code == HTTP_ERRORS.UNAUTHORIZED) {
-                            oauth2Provider.showLoginModal();
-                            return;
-                        }
-                    } else {
-                        // The request has succeeded.
-                        $scope.conferences = resp.result.items;
-                        $scope.loading = false;
-                        $scope.messages = 'Query succeeded : Conferences you will attend (or you have attended)';
-                        $scope.alertStatus = 'success';
-                        $log.info($scope.messages);
-                    }
-                    $scope.submitted = true;
-                });
-            });
+    /**
+     * Shows the conferences the user will attend, from the dashboard.
+     */
+    $scope.getConferencesAttend = function () {
+        $scope.withDashboard(function (dashboard) {
+            $scope.conferences = dashboard.conferencesToAttend || [];
+            $scope.messages = 'Query succeeded : Conferences you will attend (or you have attended)';
+            $scope.alertStatus = 'success';
+            $log.info($scope.messages);
+            $scope.submitted = true;
+        });
     };
 });
 
@@ -541,7 +547,7 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
  * @description
  * A controller used for the conference detail page.
  */
-conferenceApp.controllers.controller('ConferenceDetailCtrl', function ($scope, $log, $routeParams, HTTP_ERRORS) {
+conferenceApp.controllers.controller('ConferenceDetailCtrl', function ($scope, $log, $routeParams, HTTP_ERRORS, idempotencyKey) {
     $scope.conference = {};
 
     $scope.isUserAttending = false;
@@ -569,6 +575,7 @@ conferenceApp.controllers.controller('ConferenceDetailCtrl', function ($scope, $
                     // The request has succeeded.
                     $scope.alertStatus = 'success';
                     $scope.conference = resp.result;
+                    $scope.watchSeats(0);
                 }
             });
         });
@@ -596,16 +603,58 @@ conferenceApp.controllers.controller('ConferenceDetailCtrl', function ($scope, $
     };
 
 
+    $scope.watching = true;
+
+    $scope.$on('$destroy', function () {
+        $scope.watching = false;
+    });
+
+    /**
+     * Keeps conference.seatsAvailable current while the page is open, by long-polling the
+     * conference.watchSeats method with the version of the last seat count.
+     *
+     * @param version the version returned by the previous call, 0 for the current count.
+     */
+    $scope.watchSeats = function (version) {
+        if (!$scope.watching) {
+            return;
+        }
+        gapi.client.conference.watchSeats({
+            websafeConferenceKey: $routeParams.websafeConferenceKey,
+            version: version
+        }).execute(function (resp) {
+            if (resp.error) {
+                // Back off before watching again, the feed is only a convenience.
+                $log.error('Failed to watch the seats : ' + (resp.error.message || ''));
+                setTimeout(function () {
+                    $scope.watchSeats(version);
+                }, 30000);
+                return;
+            }
+            $scope.$apply(function () {
+                $scope.conference.seatsAvailable = resp.result.seatsAvailable;
+            });
+            $scope.watchSeats(resp.result.version);
+        });
+    };
+
     /**
      * Invokes the conference.registerForConference method.
      */
     $scope.registerForConference = function () {
         $scope.loading = true;
+        // Kept until the server answers for sure, so that a retry after a timeout is not
+        // refused as already registered.
+        $scope.registrationKey = $scope.registrationKey || idempotencyKey();
         gapi.client.conference.registerForConference({
-            websafeConferenceKey: $routeParams.websafeConferenceKey
+            websafeConferenceKey: $routeParams.websafeConferenceKey,
+            idempotencyKey: $scope.registrationKey
         }).execute(function (resp) {
             $scope.$apply(function () {
                 $scope.loading = false;
+                if (!resp.error || (resp.code && resp.code < 500)) {
+                    $scope.registrationKey = null;
+                }
                 if (resp.error) {
                     // The request has failed.
                     var errorMessage = resp.error.message || '';
@@ -753,6 +802,26 @@ conferenceApp.controllers.controller('RootCtrl', function ($scope, $location, oa
         $scope.rootMessages = 'Logged out';
     };
 
+    /**
+     * Invokes the conference.getAnnouncement method and sets the nearly sold out announcement in the $scope.
+     */
+    $scope.getAnnouncement = function () {
+        if (!gapi.client.conference) {
+            // The conference API is not loaded yet.
+            return;
+        }
+        gapi.client.conference.getAnnouncement().execute(function (resp) {
+            $scope.$apply(function () {
+                if (resp.result) {
+                    $scope.announcement = resp.result.message;
+                }
+            });
+        });
+    };
+
+    // The app is bootstrapped once the conference API is loaded, see init() in index.html.
+    $scope.getAnnouncement();
+
     /**
      * Collapses the navbar on mobile devices.
      */